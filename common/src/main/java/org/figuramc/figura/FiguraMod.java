@@ -16,6 +16,7 @@ import org.figuramc.figura.config.Configs;
 import org.figuramc.figura.entries.EntryPointManager;
 import org.figuramc.figura.font.Emojis;
 import org.figuramc.figura.lua.FiguraLuaPrinter;
+import org.figuramc.figura.lua.LuaRuntimePool;
 import org.figuramc.figura.lua.docs.FiguraDocsManager;
 import org.figuramc.figura.mixin.SkullBlockEntityAccessor;
 import org.figuramc.figura.permissions.PermissionManager;
@@ -64,6 +65,7 @@ public class FiguraMod {
         CacheAvatarLoader.init();
         FiguraDocsManager.init();
         FiguraRuntimeResources.init();
+        LuaRuntimePool.init();
     }
 
     public static List<FiguraResourceListener> getResourceListeners() {
@@ -81,6 +83,7 @@ public class FiguraMod {
         NetworkStuff.tick();
         popPushProfiler("files");
         LocalAvatarLoader.tick();
+        CacheAvatarLoader.tick();
         LocalAvatarFetcher.tick();
         popPushProfiler("avatars");
         AvatarManager.tickLoadedAvatars();
@@ -130,7 +130,7 @@ public class Animation {
                     LuaValue value = owner.loadScript("animations." + modelName + "." + name, codeFrames.get(codeTime));
                     owner.run(value, owner.animation, this);
                 } catch (Exception e) {
-                    owner.luaRuntime.error(e);
+                    owner.luaRuntime.error(owner, e);
                 }
             }
         }
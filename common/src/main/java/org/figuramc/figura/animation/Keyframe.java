@@ -75,7 +75,7 @@ public class Keyframe implements Comparable<Keyframe> {
                         throw new LuaError("Failed to parse data from [" + this.chunkName + "], expected number, but got " + args.arg(1).typename());
                 } catch (Exception e) {
                     if (owner.luaRuntime != null)
-                        owner.luaRuntime.error(e);
+                        owner.luaRuntime.error(owner, e);
                 }
             }
         }
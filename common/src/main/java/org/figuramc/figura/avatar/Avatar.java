@@ -1,7 +1,5 @@
 package org.figuramc.figura.avatar;
 
-import com.mojang.blaze3d.audio.OggAudioStream;
-import com.mojang.blaze3d.audio.SoundBuffer;
 import com.mojang.blaze3d.platform.Lighting;
 import com.mojang.blaze3d.platform.NativeImage;
 import com.mojang.blaze3d.systems.RenderSystem;
@@ -21,7 +19,6 @@ import net.minecraft.client.renderer.texture.OverlayTexture;
 import net.minecraft.core.Direction;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
-import net.minecraft.nbt.NbtIo;
 import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.world.entity.Entity;
@@ -40,6 +37,7 @@ import org.figuramc.figura.lua.api.entity.EntityAPI;
 import org.figuramc.figura.lua.api.particle.ParticleAPI;
 import org.figuramc.figura.lua.api.ping.PingArg;
 import org.figuramc.figura.lua.api.ping.PingFunction;
+import org.figuramc.figura.lua.api.sound.CustomSound;
 import org.figuramc.figura.lua.api.sound.SoundAPI;
 import org.figuramc.figura.lua.api.world.BlockStateAPI;
 import org.figuramc.figura.lua.api.world.ItemStackAPI;
@@ -51,14 +49,17 @@ import org.figuramc.figura.model.ParentType;
 import org.figuramc.figura.model.PartCustomization;
 import org.figuramc.figura.model.rendering.AvatarRenderer;
 import org.figuramc.figura.model.rendering.EntityRenderMode;
+import org.figuramc.figura.model.rendering.BakedAvatarRenderer;
 import org.figuramc.figura.model.rendering.ImmediateAvatarRenderer;
 import org.figuramc.figura.model.rendering.PartFilterScheme;
+import org.figuramc.figura.model.rendering.VertexArray;
 import org.figuramc.figura.model.rendering.texture.FiguraTexture;
 import org.figuramc.figura.permissions.PermissionManager;
 import org.figuramc.figura.permissions.PermissionPack;
 import org.figuramc.figura.permissions.Permissions;
 import org.figuramc.figura.utils.ColorUtils;
 import org.figuramc.figura.utils.EntityUtils;
+import org.figuramc.figura.utils.IOUtils;
 import org.figuramc.figura.utils.RefilledNumber;
 import org.figuramc.figura.utils.Version;
 import org.figuramc.figura.utils.ui.UIHelper;
@@ -68,12 +69,10 @@ import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 // the avatar class
@@ -81,14 +80,16 @@ import java.util.function.Consumer;
 // and also related to the owner, like its permissions
 public class Avatar {
 
-    private static CompletableFuture<Void> tasks;
     public static boolean firstPerson;
 
     // properties
     public final UUID owner;
     public final EntityType<?> entityType;
     public CompoundTag nbt;
-    public boolean loaded = true;
+    public volatile boolean loaded = true;
+    private final AtomicInteger loadCount = new AtomicInteger();
+    private final Object loadLock = new Object();
+    private final Object loadState = new Object();
     public final boolean isHost;
 
     // metadata
@@ -97,6 +98,13 @@ public class Avatar {
     public Version version;
     public String id;
     public int fileSize;
+    public final Map<String, Integer> sectionSizes = new LinkedHashMap<>(); // uncompressed size of each avatar section
+
+    // estimated memory use, in bytes
+    public long modelMemory, textureMemory, soundMemory, scriptMemory;
+    public volatile long lastSeen = System.currentTimeMillis();
+    public boolean hibernating;
+    private int hibernatedTicks;
     public String color;
     public Map<String, String> badgeToColor = new HashMap<>();
 
@@ -111,8 +119,10 @@ public class Avatar {
 
     public final PermissionPack.PlayerPermissionPack permissions;
 
-    public final Map<String, SoundBuffer> customSounds = new HashMap<>();
+    public final Map<String, CustomSound> customSounds = new HashMap<>();
     public final Map<Integer, Animation> animations = new HashMap<>();
+    public AvatarTemplate template; // shared model data, for CEM and downloaded avatars
+    public FiguraLuaRuntime.Instance luaInstance; // entity state, when sharing the template runtime
 
     // runtime status
     public boolean hasTexture, scriptError;
@@ -154,75 +164,121 @@ public class Avatar {
     }
 
     public void load(CompoundTag nbt) {
-        Runnable toRun = () -> {
-            this.nbt = nbt;
-            loaded = false;
-        };
+        load(nbt, -1);
+    }
 
-        if (tasks == null || tasks.isDone()) {
-            tasks = CompletableFuture.runAsync(toRun);
-        } else {
-            tasks.thenRun(toRun);
+    /**
+     * @param fileSize - the compressed size of the avatar, as it was read or downloaded, or -1 when unknown
+     */
+    public void load(CompoundTag nbt, int fileSize) {
+        int load;
+        synchronized (loadState) {
+            load = loadCount.incrementAndGet();
+            loaded = false;
         }
 
-        tasks.join();
+        // avatars load in parallel, but loads of the same avatar never overlap
+        AvatarLoadPool.submit(this, () -> {
+            synchronized (loadLock) {
+                // a newer load replaced this one
+                if (loadCount.get() != load)
+                    return;
+
+                this.nbt = nbt;
+                this.fileSize = Math.max(fileSize, 0);
+                if (nbt == null)
+                    publish(load);
+                else
+                    loadData(load, nbt, fileSize);
+            }
+        });
+    }
 
-        if (nbt == null) {
-            loaded = true;
-            return;
+    /**
+     * Marks the avatar as loaded, unless a newer load started in the meantime, in which case this load is thrown away
+     */
+    private void publish(int load) {
+        synchronized (loadState) {
+            if (loadCount.get() == load) {
+                loaded = true;
+                return;
+            }
         }
 
-        tasks.thenRun(() -> {
-            try {
-                // metadata
-                CompoundTag metadata = nbt.getCompound("metadata");
-                name = metadata.getString("name");
-                authors = metadata.getString("authors");
-                version = new Version(metadata.getString("ver"));
-                if (metadata.contains("id"))
-                    id = metadata.getString("id");
-                if (metadata.contains("color"))
-                    color = metadata.getString("color");
-                if (metadata.contains("minify"))
-                    minify = metadata.getBoolean("minify");
-                for (String key : metadata.getAllKeys()) {
-                    if (key.contains("badge_color_")) {
-                        badgeToColor.put(key.replace("badge_color_", ""), metadata.getString(key));
-                    }
+        // the newer load rebuilds everything, so only free what this one created
+        if (renderer != null)
+            renderer.invalidate();
+        clearSounds();
+        customSounds.clear();
+        events.clear();
+        renderer = null;
+        luaRuntime = null;
+        luaInstance = null;
+        FiguraMod.debug("Discarded outdated load of {}", owner);
+    }
+
+    private void loadData(int load, CompoundTag nbt, int fileSize) {
+        try {
+            // metadata
+            CompoundTag metadata = nbt.getCompound("metadata");
+            name = metadata.getString("name");
+            authors = metadata.getString("authors");
+            version = new Version(metadata.getString("ver"));
+            if (metadata.contains("id"))
+                id = metadata.getString("id");
+            if (metadata.contains("color"))
+                color = metadata.getString("color");
+            if (metadata.contains("minify"))
+                minify = metadata.getBoolean("minify");
+            for (String key : metadata.getAllKeys()) {
+                if (key.contains("badge_color_")) {
+                    badgeToColor.put(key.replace("badge_color_", ""), metadata.getString(key));
                 }
-                fileSize = getFileSize();
-                versionStatus = getVersionStatus();
-                if (entityName.isBlank())
-                    entityName = name;
-
-                // animations and models
-                loadAnimations();
-                renderer = new ImmediateAvatarRenderer(this);
-
-                // sounds and script
-                loadCustomSounds();
-                createLuaRuntime();
-            } catch (Exception e) {
-                FiguraMod.LOGGER.error("", e);
-                clean();
-                this.nbt = null;
-                this.renderer = null;
-                this.luaRuntime = null;
             }
+            if (fileSize < 0)
+                this.fileSize = getFileSize();
+            loadSectionSizes();
+            versionStatus = getVersionStatus();
+            if (entityName.isBlank())
+                entityName = name;
+
+            // animations and models
+            loadAnimations();
+            renderer = metadata.getBoolean("baked") ? new BakedAvatarRenderer(this) : new ImmediateAvatarRenderer(this);
+
+            // sounds and script
+            loadCustomSounds();
+            createLuaRuntime(load);
+        } catch (Exception e) {
+            FiguraMod.LOGGER.error("", e);
+            clean();
+            this.nbt = null;
+            this.renderer = null;
+            this.luaRuntime = null;
+        }
 
-            loaded = true;
-        });
+        publish(load);
     }
 
     public void tick() {
         if (scriptError || luaRuntime == null || !loaded)
             return;
 
+        // only keep up with pings while hibernating
+        if (hibernating) {
+            hibernatedTicks++;
+            flushQueuedEvents();
+            return;
+        }
+
         // fetch this avatar entity
-        if (luaRuntime.getUser() == null) {
+        if (!hasUser()) {
             Entity entity = EntityUtils.getEntityByUUID(owner);
             if (entity != null) {
-                luaRuntime.setUser(entity);
+                if (luaInstance != null)
+                    luaInstance.setUser(entity);
+                else
+                    luaRuntime.setUser(entity);
                 run("ENTITY_INIT", init.post());
             }
         }
@@ -267,7 +323,7 @@ public class Avatar {
 
         complexity.reset(permissions.get(Permissions.COMPLEXITY));
 
-        if (scriptError || luaRuntime == null || !loaded)
+        if (scriptError || luaRuntime == null || !loaded || hibernating)
             return;
 
         render.reset(permissions.get(Permissions.RENDER_INST));
@@ -287,7 +343,7 @@ public class Avatar {
                 return;
 
             FiguraLuaPrinter.sendPingMessage(this, name, data.length, args);
-            luaRuntime.run(function.func, tick, (Object[]) args);
+            luaRuntime.run(luaInstance, function.func, tick, (Object[]) args);
         });
     }
 
@@ -303,7 +359,7 @@ public class Avatar {
                 e.run();
             } catch (Exception | StackOverflowError ex) {
                 if (luaRuntime != null)
-                    luaRuntime.error(ex);
+                    luaRuntime.error(this, ex);
             }
         }
     }
@@ -316,7 +372,7 @@ public class Avatar {
             return null;
 
         // run event
-        Varargs ret = luaRuntime.run(toRun, limit, args);
+        Varargs ret = luaRuntime.run(luaInstance, toRun, limit, args);
 
         // stuff that this run produced
         flushQueuedEvents();
@@ -325,6 +381,41 @@ public class Avatar {
         return ret;
     }
 
+    // -- hibernation -- //
+
+    /**
+     * Marks this avatar as seen, waking it up if it was hibernating
+     */
+    public void seen() {
+        lastSeen = System.currentTimeMillis();
+        if (hibernating)
+            wake();
+    }
+
+    /**
+     * Stops running tick and render events until this avatar is seen again, and frees its render caches
+     */
+    public void hibernate() {
+        if (hibernating)
+            return;
+
+        hibernating = true;
+        hibernatedTicks = 0;
+        if (renderer != null)
+            renderer.releaseCaches();
+        FiguraMod.debug("Avatar of {} is now hibernating", owner);
+    }
+
+    private void wake() {
+        hibernating = false;
+        FiguraMod.debug("Avatar of {} woke up after {} ticks", owner, hibernatedTicks);
+        if (loaded && luaRuntime != null) {
+            // the tick budget was not reset while hibernating, and waking can happen outside of a tick
+            tick.reset(permissions.get(Permissions.TICK_INST));
+            run("WAKE", tick, hibernatedTicks);
+        }
+    }
+
     public void punish(int amount) {
         if (luaRuntime != null)
             luaRuntime.takeInstructions(amount);
@@ -342,18 +433,23 @@ public class Avatar {
         return false;
     }
 
+    private boolean hasUser() {
+        return luaInstance != null ? luaInstance.getUser() != null : luaRuntime.getUser() != null;
+    }
+
     public void tickEvent() {
-        if (loaded && luaRuntime != null && luaRuntime.getUser() != null)
+        if (loaded && luaRuntime != null && hasUser())
             run("TICK", tick);
     }
 
     public void renderEvent(float delta, FiguraMat4 poseMatrix) {
-        if (loaded && luaRuntime != null && luaRuntime.getUser() != null)
+        seen();
+        if (loaded && luaRuntime != null && hasUser())
             run("RENDER", render, delta, renderMode.name(), poseMatrix);
     }
 
     public void postRenderEvent(float delta, FiguraMat4 poseMatrix) {
-        if (loaded && luaRuntime != null && luaRuntime.getUser() != null)
+        if (loaded && luaRuntime != null && hasUser())
             run("POST_RENDER", render.post(), delta, renderMode.name(), poseMatrix);
         renderMode = EntityRenderMode.OTHER;
     }
@@ -365,7 +461,8 @@ public class Avatar {
         if (renderer != null)
             renderer.allowMatrixUpdate = false;
 
-        run("POST_WORLD_RENDER", worldRender.post(), delta);
+        if (!hibernating)
+            run("POST_WORLD_RENDER", worldRender.post(), delta);
     }
 
     public boolean skullRenderEvent(float delta, BlockStateAPI block, ItemStackAPI item, EntityAPI<?> entity, String mode) {
@@ -457,6 +554,7 @@ public class Avatar {
     // -- rendering events -- // 
 
     private void render() {
+        seen();
         if (renderMode == EntityRenderMode.RENDER || renderMode == EntityRenderMode.FIRST_PERSON) {
             complexity.use(renderer.render());
             return;
@@ -891,30 +989,99 @@ public class Avatar {
         clearParticles();
 
         events.clear();
+
+        // let the cache know this avatar is no longer using its template
+        if (template != null) {
+            if (template.hash != null)
+                AvatarTemplateCache.release(template, this);
+            else
+                template.removeUser(this);
+        }
     }
 
     public void clearSounds() {
         SoundAPI.getSoundEngine().figura$stopSound(owner, null);
-        for (SoundBuffer value : customSounds.values())
-            value.releaseAlBuffer();
+        for (CustomSound value : customSounds.values()) {
+            // shared sounds are released by their template
+            if (template == null || !template.isShared(value))
+                value.close();
+        }
     }
 
     public void clearParticles() {
         ParticleAPI.getParticleEngine().figura$clearParticles(owner);
     }
 
+    public long getMemory() {
+        return modelMemory + textureMemory + soundMemory + scriptMemory;
+    }
+
+    /**
+     * Updates the estimate of how much memory this avatar is holding.
+     * Data shared with other avatars from the same file is counted for each of them
+     */
+    public void updateMemory() {
+        if (!loaded || nbt == null) {
+            modelMemory = textureMemory = soundMemory = scriptMemory = 0;
+            return;
+        }
+
+        // data still owned by the template is split between every avatar using it
+        int users = template == null ? 1 : template.getUserCount();
+
+        modelMemory = renderer == null || renderer.root == null ? 0 : getModelMemory(renderer.root, users);
+
+        long textures = 0;
+        if (renderer != null) {
+            for (FiguraTexture texture : renderer.textures.values()) {
+                long size = texture.getWidth() * texture.getHeight() * 4L;
+                textures += texture.isShared() ? size / users : size;
+            }
+            for (FiguraTexture texture : renderer.customTextures.values())
+                textures += texture.getWidth() * texture.getHeight() * 4L;
+        }
+        textureMemory = textures;
+
+        long sounds = 0;
+        for (CustomSound sound : customSounds.values())
+            sounds += template != null && template.isShared(sound) ? sound.getMemory() / users : sound.getMemory();
+        soundMemory = sounds;
+
+        // the lua heap is not tracked by luaj, so this is only the size of the scripts
+        long scripts = luaRuntime == null ? 0 : sectionSizes.getOrDefault("scripts", 0);
+        scriptMemory = template != null && luaRuntime != null && template.getRuntime() == luaRuntime ? scripts / users : scripts;
+    }
+
+    private static long getModelMemory(FiguraModelPart part, int users) {
+        // rough size of the part itself, with its customizations and matrices
+        long memory = 512 + part.renderTasks.size() * 256L;
+        long vertexMemory = 0;
+        for (VertexArray vertices : part.vertices.values())
+            vertexMemory += (vertices.positions.length + vertices.uvs.length + vertices.normals.length) * 4L;
+        memory += part.sharedVertices ? vertexMemory / users : vertexMemory;
+        for (FiguraModelPart child : part.children)
+            memory += getModelMemory(child, users);
+        return memory;
+    }
+
     private int getFileSize() {
         try {
-            // get size
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            NbtIo.writeCompressed(nbt, baos);
-            return baos.size();
+            // only for avatars which did not come from a file, so the size has to be measured
+            return IOUtils.getCompressedSize(nbt);
         } catch (Exception e) {
             FiguraMod.LOGGER.warn("Failed to generate file size for model " + this.name, e);
             return 0;
         }
     }
 
+    private void loadSectionSizes() {
+        sectionSizes.clear();
+        for (String section : List.of("models", "textures", "scripts", "sounds", "animations")) {
+            Tag tag = nbt.get(section);
+            sectionSizes.put(section, tag == null ? 0 : IOUtils.getSize(tag));
+        }
+    }
+
     private int getVersionStatus() {
         if (version == null || (NetworkStuff.latestVersion != null && version.compareTo(NetworkStuff.latestVersion) > 0))
             return 0;
@@ -923,10 +1090,23 @@ public class Avatar {
 
     // -- loading -- // 
 
-    private void createLuaRuntime() {
+    private void createLuaRuntime(int load) {
         if (!nbt.contains("scripts"))
             return;
 
+        // entity avatars can opt in to run their scripts only once per entity type
+        boolean shared = template != null && template.canShareRuntime() && nbt.getCompound("metadata").getBoolean("sharedScript");
+        FiguraLuaRuntime sharedRuntime = shared ? template.getRuntime() : null;
+        if (sharedRuntime != null) {
+            events.offer(() -> {
+                if (loadCount.get() != load)
+                    return;
+                luaInstance = sharedRuntime.createInstance(this);
+                luaRuntime = sharedRuntime;
+            });
+            return;
+        }
+
         Map<String, String> scripts = new HashMap<>();
         CompoundTag scriptsNbt = nbt.getCompound("scripts");
         for (String s : scriptsNbt.getAllKeys())
@@ -940,16 +1120,28 @@ public class Avatar {
         else
             autoScripts = null;
 
+        long start = System.nanoTime();
         FiguraLuaRuntime runtime = new FiguraLuaRuntime(this, scripts);
+        FiguraMod.debug("Created script runtime for {} in {}ms", owner, (System.nanoTime() - start) / 1e6);
         if (renderer != null && renderer.root != null)
             runtime.setGlobal("models", renderer.root);
 
         init.reset(permissions.get(Permissions.INIT_INST));
         runtime.setInstructionLimit(init.remaining);
 
+        if (shared)
+            template.setRuntime(runtime);
+
         events.offer(() -> {
+            // the runtime of an outdated load never runs
+            if (loadCount.get() != load)
+                return;
+            if (shared)
+                luaInstance = runtime.createInstance(this);
+            long initStart = System.nanoTime();
             if (runtime.init(autoScripts))
                 init.use(runtime.getInstructions());
+            FiguraMod.debug("Ran scripts of {} in {}ms", owner, (System.nanoTime() - initStart) / 1e6);
         });
     }
 
@@ -1013,7 +1205,10 @@ public class Avatar {
         CompoundTag root = nbt.getCompound("sounds");
         for (String key : root.getAllKeys()) {
             try {
-                loadSound(key, root.getByteArray(key));
+                if (template != null)
+                    customSounds.put(key, template.getSound(key, root.getByteArray(key)));
+                else
+                    loadSound(key, root.getByteArray(key));
             } catch (Exception e) {
                 FiguraMod.LOGGER.warn("Failed to load custom sound \"" + key + "\"", e);
             }
@@ -1021,9 +1216,11 @@ public class Avatar {
     }
 
     public void loadSound(String name, byte[] data) throws Exception {
-        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data); OggAudioStream oggAudioStream = new OggAudioStream(inputStream)) {
-            SoundBuffer sound = new SoundBuffer(oggAudioStream.readAll(), oggAudioStream.getFormat());
-            this.customSounds.put(name, sound);
+        // decoded once played
+        CustomSound old = this.customSounds.put(name, new CustomSound(data));
+        if (old != null && (template == null || !template.isShared(old))) {
+            SoundAPI.getSoundEngine().figura$stopSound(old);
+            old.close();
         }
     }
 
@@ -0,0 +1,75 @@
+package org.figuramc.figura.avatar;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.multiplayer.ClientPacketListener;
+import net.minecraft.world.entity.Entity;
+import org.figuramc.figura.utils.EntityUtils;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads avatars on a small pool of worker threads, so one big avatar does not hold back every other one.
+ * The host avatar loads first, then avatars closest to the camera, then players on the player list.
+ * Anything that needs the main thread (script init and texture uploads) is already queued to run later by the avatar itself
+ */
+public class AvatarLoadPool {
+
+    private static final int THREADS = Math.max(Math.min(Runtime.getRuntime().availableProcessors() / 2, 4), 1);
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "Figura Avatar Loader-" + THREAD_ID.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    public static void submit(Avatar avatar, Runnable task) {
+        EXECUTOR.execute(new LoadTask(task, getPriority(avatar), SEQUENCE.getAndIncrement()));
+    }
+
+    /**
+     * @return the load priority of the avatar, lower loads first
+     */
+    private static double getPriority(Avatar avatar) {
+        if (avatar.isHost)
+            return -1;
+
+        Minecraft minecraft = Minecraft.getInstance();
+
+        // the world can only be safely read from the main thread
+        if (minecraft.isSameThread()) {
+            Entity camera = minecraft.getCameraEntity();
+            Entity entity = EntityUtils.getEntityByUUID(avatar.owner);
+            if (camera != null && entity != null)
+                return camera.distanceTo(entity);
+        }
+
+        ClientPacketListener connection = minecraft.getConnection();
+        if (connection != null && connection.getPlayerInfo(avatar.owner) != null)
+            return 1e6;
+
+        return 1e7;
+    }
+
+    private record LoadTask(Runnable task, double priority, long sequence) implements Runnable, Comparable<LoadTask> {
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(LoadTask other) {
+            int compare = Double.compare(priority, other.priority);
+            return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -14,6 +14,7 @@ import net.minecraft.world.entity.player.Player;
 import org.figuramc.figura.FiguraMod;
 import org.figuramc.figura.avatar.local.LocalAvatarLoader;
 import org.figuramc.figura.backend2.NetworkStuff;
+import org.figuramc.figura.config.Configs;
 import org.figuramc.figura.gui.FiguraToast;
 import org.figuramc.figura.gui.widgets.lists.AvatarList;
 import org.figuramc.figura.lua.api.particle.ParticleAPI;
@@ -39,6 +40,13 @@ public class AvatarManager {
     private static final Set<UUID> FETCHED_USERS = new HashSet<>();
 
     private static final Map<Entity, Avatar> LOADED_CEM = new ConcurrentHashMap<>();
+    private static final Map<ResourceLocation, AvatarTemplate> CEM_TEMPLATES = new ConcurrentHashMap<>();
+
+    // players unloaded to stay under the memory budget, loaded again once they come close
+    private static final Set<UUID> UNLOADED_USERS = ConcurrentHashMap.newKeySet();
+    private static final long MIN_UNSEEN_TIME = 10_000;
+    private static final double NEAR_DISTANCE = 32;
+    private static int memoryTicks;
 
     public static final FiguraResourceListener RESOURCE_RELOAD_EVENT = FiguraResourceListener.createResourceListener("resource_reload_event", manager -> executeAll("resourceReloadEvent", Avatar::resourceReloadEvent));
 
@@ -60,16 +68,26 @@ public class AvatarManager {
         if (panic)
             return;
 
+        Entity camera = Minecraft.getInstance().getCameraEntity();
+        long now = System.currentTimeMillis();
+
         // tick the avatars
         for (UserData user : LOADED_USERS.values()) {
             Avatar avatar = user.getMainAvatar();
             if (avatar != null) {
                 FiguraMod.pushProfiler(avatar);
+                updateHibernation(avatar, EntityUtils.getEntityByUUID(avatar.owner), camera, now);
                 avatar.tick();
                 FiguraMod.popProfiler();
             }
         }
 
+        // memory budget, once per second
+        if (++memoryTicks >= 20) {
+            memoryTicks = 0;
+            checkMemoryBudget();
+        }
+
         // CEM
         if (LOADED_CEM.isEmpty())
             return;
@@ -81,19 +99,96 @@ public class AvatarManager {
             if (entity.isRemoved())
                 toBeRemoved.add(entity);
 
-        for (Entity entity : toBeRemoved)
-            LOADED_CEM.remove(entity);
+        for (Entity entity : toBeRemoved) {
+            // also lets its template know it lost a user
+            Avatar avatar = LOADED_CEM.remove(entity);
+            if (avatar != null)
+                avatar.clean();
+        }
 
         // tick entities
-        for (Avatar avatar : LOADED_CEM.values()) {
+        for (Map.Entry<Entity, Avatar> entry : LOADED_CEM.entrySet()) {
+            Avatar avatar = entry.getValue();
             if (avatar != null) {
                 FiguraMod.pushProfiler(avatar);
+                updateHibernation(avatar, entry.getKey(), camera, now);
                 avatar.tick();
                 FiguraMod.popProfiler();
             }
         }
     }
 
+    private static void updateHibernation(Avatar avatar, Entity entity, Entity camera, long now) {
+        long time = Configs.HIBERNATION_TIME.value * 1000L;
+
+        // close entities count as seen, even when behind the camera
+        if (entity != null && camera != null && camera.distanceTo(entity) <= NEAR_DISTANCE) {
+            avatar.seen();
+        } else if (time <= 0 || avatar.isHost) {
+            if (avatar.hibernating)
+                avatar.seen();
+        } else if (!avatar.hibernating && now - avatar.lastSeen > time) {
+            avatar.hibernate();
+        }
+    }
+
+    private static void checkMemoryBudget() {
+        // reload players who came close again
+        Entity camera = Minecraft.getInstance().getCameraEntity();
+        if (camera != null) {
+            for (UUID id : UNLOADED_USERS) {
+                Entity entity = EntityUtils.getEntityByUUID(id);
+                if (entity != null && camera.distanceTo(entity) <= NEAR_DISTANCE) {
+                    UNLOADED_USERS.remove(id);
+                    FETCHED_USERS.remove(id);
+                }
+            }
+        }
+
+        long budget = Configs.AVATAR_MEMORY_BUDGET.value * 1024L * 1024L;
+        if (budget <= 0)
+            return;
+
+        // get the memory of everything loaded
+        long total = 0;
+        List<Avatar> avatars = new ArrayList<>();
+        for (UserData user : LOADED_USERS.values()) {
+            for (Avatar avatar : user.getAvatars()) {
+                avatar.updateMemory();
+                total += avatar.getMemory();
+                avatars.add(avatar);
+            }
+        }
+        for (Avatar avatar : LOADED_CEM.values()) {
+            avatar.updateMemory();
+            total += avatar.getMemory();
+            avatars.add(avatar);
+        }
+
+        if (total <= budget)
+            return;
+
+        // unload the least recently seen avatars first
+        avatars.sort(Comparator.comparingLong(avatar -> avatar.lastSeen));
+        long now = System.currentTimeMillis();
+        for (Avatar avatar : avatars) {
+            if (total <= budget || now - avatar.lastSeen < MIN_UNSEEN_TIME)
+                break;
+            if (avatar.isHost)
+                continue;
+
+            total -= avatar.getMemory();
+            if (LOADED_CEM.values().remove(avatar)) {
+                avatar.clean();
+            } else {
+                clearAvatars(avatar.owner);
+                FETCHED_USERS.add(avatar.owner);
+                UNLOADED_USERS.add(avatar.owner);
+            }
+            FiguraMod.debug("Unloaded avatar of {} to stay under the memory budget", avatar.owner);
+        }
+    }
+
     public static void executeAll(String src, Consumer<Avatar> consumer) {
         if (panic) return;
 
@@ -142,7 +237,7 @@ public class AvatarManager {
         // new avatar
         ResourceLocation type = BuiltInRegistries.ENTITY_TYPE.getKey(entity.getType());
         CompoundTag nbt = LocalAvatarLoader.CEM_AVATARS.get(type);
-        return nbt == null ? null : loadEntityAvatar(entity, nbt);
+        return nbt == null ? null : loadEntityAvatar(entity, nbt, LocalAvatarLoader.CEM_SIZES.getOrDefault(type, -1), CEM_TEMPLATES.computeIfAbsent(type, id -> new AvatarTemplate(nbt)));
     }
 
     // tries to get data from an entity
@@ -185,6 +280,7 @@ public class AvatarManager {
     // removes an loaded avatar
     public static void clearAvatars(UUID id) {
         FETCHED_USERS.remove(id);
+        UNLOADED_USERS.remove(id);
 
         UserData user = LOADED_USERS.get(id);
         if (user != null) user.clear();
@@ -197,6 +293,10 @@ public class AvatarManager {
         for (Avatar avatar : LOADED_CEM.values())
             avatar.clean();
         LOADED_CEM.clear();
+
+        for (AvatarTemplate template : CEM_TEMPLATES.values())
+            template.clean();
+        CEM_TEMPLATES.clear();
     }
 
     // clears ALL loaded avatars, including local
@@ -206,7 +306,9 @@ public class AvatarManager {
 
         LOADED_USERS.clear();
         FETCHED_USERS.clear();
+        UNLOADED_USERS.clear();
         clearCEMAvatars();
+        AvatarTemplateCache.clear();
 
         localUploaded = true;
         AvatarList.selectedEntry = null;
@@ -240,18 +342,29 @@ public class AvatarManager {
 
     // load CEM avatar
     public static Avatar loadEntityAvatar(Entity entity, CompoundTag nbt) {
+        return loadEntityAvatar(entity, nbt, -1, null);
+    }
+
+    public static Avatar loadEntityAvatar(Entity entity, CompoundTag nbt, int fileSize, AvatarTemplate template) {
         Avatar targetAvatar = new Avatar(entity);
-        targetAvatar.load(nbt);
+        targetAvatar.template = template;
+        if (template != null)
+            template.addUser(targetAvatar);
+        targetAvatar.load(nbt, fileSize);
         LOADED_CEM.put(entity, targetAvatar);
         return targetAvatar;
     }
 
     // set an user's avatar
     public static void setAvatar(UUID id, CompoundTag nbt) {
+        setAvatar(id, nbt, -1);
+    }
+
+    public static void setAvatar(UUID id, CompoundTag nbt, int fileSize) {
         try {
             UserData user = LOADED_USERS.computeIfAbsent(id, UserData::new);
             clearAvatars(id);
-            user.loadAvatar(nbt);
+            user.loadAvatar(nbt, fileSize);
         } catch (Exception e) {
             FiguraMod.LOGGER.error("Failed to set avatar for " + id, e);
         }
@@ -323,7 +436,7 @@ public class AvatarManager {
             }
 
             if (LOADED_USERS.get(targetUUID) != null) {
-                setAvatar(targetUUID, avatar.nbt);
+                setAvatar(targetUUID, avatar.nbt, avatar.fileSize);
                 if (FiguraMod.isLocal(targetUUID))
                     localUploaded = true;
                 context.getSource().figura$sendFeedback(Component.literal("Set avatar for " + t));
@@ -336,7 +449,7 @@ public class AvatarManager {
                 return 0;
             }
 
-            loadEntityAvatar(targetEntity, avatar.nbt);
+            loadEntityAvatar(targetEntity, avatar.nbt, avatar.fileSize, null);
             return 1;
         });
         target.then(source);
@@ -0,0 +1,119 @@
+package org.figuramc.figura.avatar;
+
+import net.minecraft.nbt.CompoundTag;
+import org.figuramc.figura.lua.FiguraLuaRuntime;
+import org.figuramc.figura.lua.api.sound.CustomSound;
+import org.figuramc.figura.model.rendering.AvatarRenderer;
+import org.figuramc.figura.model.rendering.VertexArray;
+import org.figuramc.figura.model.rendering.texture.FiguraTexture;
+
+import java.util.*;
+
+/**
+ * Read only data shared by every avatar loaded from the same file, either a CEM model or a downloaded avatar.
+ * Model vertices, textures and sounds are only loaded once,
+ * and each avatar copies its own version once a script gets a hold of them.
+ * Entity avatars can also opt in to share a single script runtime
+ */
+public class AvatarTemplate {
+
+    public final CompoundTag nbt;
+    public final String hash; // the file hash of downloaded avatars, null for CEM models
+    public final int fileSize;
+
+    private final Map<CompoundTag, PartData> parts = new IdentityHashMap<>();
+    private final Map<String, FiguraTexture> textures = new HashMap<>();
+    private final Map<String, CustomSound> sounds = new HashMap<>();
+    private FiguraLuaRuntime runtime;
+
+    // avatars currently using this template, so they can split the memory of the shared data
+    private final Set<Avatar> users = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public AvatarTemplate(CompoundTag nbt) {
+        this(nbt, null, -1);
+    }
+
+    public AvatarTemplate(CompoundTag nbt, String hash, int fileSize) {
+        this.nbt = nbt;
+        this.hash = hash;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * @return the vertex data already read from this part, or null if no avatar has read it yet
+     */
+    public synchronized PartData getPart(CompoundTag partCompound) {
+        return parts.get(partCompound);
+    }
+
+    public synchronized void putPart(CompoundTag partCompound, List<Integer> facesByTexture, Map<Integer, VertexArray> vertices) {
+        parts.put(partCompound, new PartData(List.copyOf(facesByTexture), Map.copyOf(vertices)));
+    }
+
+    public synchronized FiguraTexture getTexture(Avatar avatar, String name, CompoundTag src) {
+        return textures.computeIfAbsent(name, key -> AvatarRenderer.readTexture(avatar, key, src));
+    }
+
+    public synchronized CustomSound getSound(String name, byte[] data) throws Exception {
+        CustomSound sound = sounds.get(name);
+        if (sound == null) {
+            sound = new CustomSound(data);
+            sounds.put(name, sound);
+        }
+        return sound;
+    }
+
+    /**
+     * Scripts can only be shared by entity avatars, players always get their own runtime
+     */
+    public boolean canShareRuntime() {
+        return hash == null;
+    }
+
+    /**
+     * @return the runtime every entity shares, when the avatar opted in to it
+     */
+    public synchronized FiguraLuaRuntime getRuntime() {
+        return runtime;
+    }
+
+    public synchronized void setRuntime(FiguraLuaRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    synchronized void addUser(Avatar avatar) {
+        users.add(avatar);
+    }
+
+    /**
+     * @return if the avatar was using this template, and no other avatar is using it anymore
+     */
+    synchronized boolean removeUser(Avatar avatar) {
+        return users.remove(avatar) && users.isEmpty();
+    }
+
+    public synchronized int getUserCount() {
+        return Math.max(users.size(), 1);
+    }
+
+    public synchronized boolean isShared(CustomSound sound) {
+        return sounds.containsValue(sound);
+    }
+
+    /**
+     * Frees the shared textures and sounds, should only be called once no avatar uses this template anymore
+     */
+    public synchronized void clean() {
+        for (FiguraTexture texture : textures.values())
+            texture.close();
+        for (CustomSound sound : sounds.values())
+            sound.close();
+
+        runtime = null;
+        parts.clear();
+        textures.clear();
+        sounds.clear();
+    }
+
+    public record PartData(List<Integer> facesByTexture, Map<Integer, VertexArray> vertices) {}
+}
@@ -0,0 +1,79 @@
+package org.figuramc.figura.avatar;
+
+import net.minecraft.nbt.CompoundTag;
+import org.figuramc.figura.FiguraMod;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the decoded data of downloaded avatars by their file hash, so everyone wearing the same avatar shares it,
+ * and reloading an avatar does not need to read and decode it again.
+ * Templates are kept while any avatar uses them, and a few unused ones are kept around in case they are needed again
+ */
+public class AvatarTemplateCache {
+
+    private static final int MAX_IDLE = 8;
+
+    private static final Map<String, AvatarTemplate> TEMPLATES = new HashMap<>();
+    // access ordered, the first entry is the least recently used
+    private static final LinkedHashMap<String, AvatarTemplate> IDLE = new LinkedHashMap<>(16, 0.75f, true);
+
+    public static synchronized boolean contains(String hash) {
+        return TEMPLATES.containsKey(hash);
+    }
+
+    /**
+     * @return the template of the hash with the avatar added as one of its users, or null if it is not cached
+     */
+    public static synchronized AvatarTemplate acquire(String hash, Avatar avatar) {
+        AvatarTemplate template = TEMPLATES.get(hash);
+        if (template != null)
+            use(template, avatar);
+        return template;
+    }
+
+    /**
+     * @return the template of the hash, created from the nbt when it is not cached yet, with the avatar added as one of its users
+     */
+    public static synchronized AvatarTemplate acquire(String hash, CompoundTag nbt, int fileSize, Avatar avatar) {
+        AvatarTemplate template = TEMPLATES.computeIfAbsent(hash, key -> new AvatarTemplate(nbt, key, fileSize));
+        use(template, avatar);
+        return template;
+    }
+
+    private static void use(AvatarTemplate template, Avatar avatar) {
+        template.addUser(avatar);
+        IDLE.remove(template.hash);
+    }
+
+    public static synchronized void release(AvatarTemplate template, Avatar avatar) {
+        if (!template.removeUser(avatar))
+            return;
+
+        IDLE.put(template.hash, template);
+
+        // free the least recently used templates
+        Iterator<AvatarTemplate> iterator = IDLE.values().iterator();
+        while (IDLE.size() > MAX_IDLE && iterator.hasNext()) {
+            AvatarTemplate idle = iterator.next();
+            iterator.remove();
+            TEMPLATES.remove(idle.hash);
+            idle.clean();
+            FiguraMod.debug("Freed avatar template \"{}\"", idle.hash);
+        }
+    }
+
+    /**
+     * Frees every template not in use
+     */
+    public static synchronized void clear() {
+        for (AvatarTemplate template : IDLE.values()) {
+            TEMPLATES.remove(template.hash);
+            template.clean();
+        }
+        IDLE.clear();
+    }
+}
@@ -26,20 +26,52 @@ public class UserData {
         loadBadges(badges);
         clear();
         for (Pair<String, Pair<String, UUID>> avatar : avatars) {
-            if (!CacheAvatarLoader.checkAndLoad(avatar.getFirst(), this)) {
-                Pair<String, UUID> pair = avatar.getSecond();
-                NetworkStuff.getAvatar(this, pair.getSecond(), pair.getFirst(), avatar.getFirst());
-            }
+            // already decoded for someone else
+            if (loadCachedAvatar(avatar.getFirst()))
+                continue;
+
+            Pair<String, UUID> pair = avatar.getSecond();
+            CacheAvatarLoader.loadOrElse(avatar.getFirst(), this, () -> NetworkStuff.getAvatar(this, pair.getSecond(), pair.getFirst(), avatar.getFirst()));
         }
     }
 
     public void loadAvatar(CompoundTag nbt) {
+        loadAvatar(nbt, -1);
+    }
+
+    public void loadAvatar(CompoundTag nbt, int fileSize) {
         Avatar avatar = new Avatar(id);
         this.avatars.add(avatar);
-        avatar.load(nbt);
+        avatar.load(nbt, fileSize);
         FiguraMod.debug("Loaded avatar for " + id);
     }
 
+    /**
+     * Loads a downloaded avatar, sharing its decoded data with every other avatar from the same file
+     */
+    public void loadAvatar(CompoundTag nbt, int fileSize, String hash) {
+        Avatar avatar = new Avatar(id);
+        avatar.template = AvatarTemplateCache.acquire(hash, nbt, fileSize, avatar);
+        this.avatars.add(avatar);
+        avatar.load(avatar.template.nbt, avatar.template.fileSize);
+        FiguraMod.debug("Loaded avatar \"" + hash + "\" for " + id);
+    }
+
+    private boolean loadCachedAvatar(String hash) {
+        if (!AvatarTemplateCache.contains(hash))
+            return false;
+
+        Avatar avatar = new Avatar(id);
+        avatar.template = AvatarTemplateCache.acquire(hash, avatar);
+        if (avatar.template == null)
+            return false;
+
+        this.avatars.add(avatar);
+        avatar.load(avatar.template.nbt, avatar.template.fileSize);
+        FiguraMod.debug("Loaded avatar \"" + hash + "\" from memory for " + id);
+        return true;
+    }
+
     public void loadBadges(Pair<BitSet, BitSet> pair) {
         this.badges = pair;
     }
@@ -1,86 +1,199 @@
 package org.figuramc.figura.avatar.local;
 
+import net.minecraft.client.Minecraft;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.NbtIo;
 import org.figuramc.figura.FiguraMod;
 import org.figuramc.figura.avatar.UserData;
+import org.figuramc.figura.config.Configs;
 import org.figuramc.figura.utils.IOUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.FileTime;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
+/**
+ * Disk cache of downloaded avatars, one file per avatar hash.
+ * Every cached file is tracked by an index, read once at startup, so lookups never touch the disk.
+ * The cache is kept under the configured size by removing the least recently used avatars first
+ */
 public class CacheAvatarLoader {
 
+    private static final String INDEX_FILE = "index.nbt";
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+    private static final int INDEX_SAVE_TICKS = 600;
+
+    // access ordered, the first entry is the least recently used
+    private static final LinkedHashMap<String, CacheEntry> INDEX = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalSize;
+    private static final CompletableFuture<Void> READY = new CompletableFuture<>();
+
+    // access times changed since the index was last written
+    private static boolean indexDirty;
+    private static int indexTicks;
+
     public static void init() {
         LocalAvatarLoader.async(() -> {
-            Path file = getAvatarCacheDirectory();
-            if (!(Files.exists(file) && Files.isDirectory(file)))
-                return;
+            try {
+                synchronized (INDEX) {
+                    INDEX.clear();
+                    totalSize = 0;
 
-            List<Path> children = IOUtils.listPaths(file);
-            if (children == null)
-                return;
+                    Path dir = getAvatarCacheDirectory();
+                    readIndex(dir);
+                    syncIndex(dir);
 
-            for (Path child : children) {
-                try {
-                    FileTime time = Files.getLastModifiedTime(child);
-                    long diff = System.currentTimeMillis() - time.toMillis();
-                    long elapsed = TimeUnit.MILLISECONDS.toDays(diff);
-                    if (elapsed > 7) {
-                        if (Files.deleteIfExists(child)) {
-                            FiguraMod.debug("Successfully deleted cache avatar \"{}\" with \"{}\" days old", IOUtils.getFileNameOrEmpty(child), elapsed);
-                        } else {
-                            throw new Exception();
+                    // remove old avatars, then keep the cache under its size limit
+                    long now = System.currentTimeMillis();
+                    Iterator<Map.Entry<String, CacheEntry>> iterator = INDEX.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<String, CacheEntry> entry = iterator.next();
+                        long elapsed = now - entry.getValue().lastAccess;
+                        if (elapsed > MAX_AGE) {
+                            iterator.remove();
+                            totalSize -= entry.getValue().size;
+                            delete(entry.getKey());
+                            FiguraMod.debug("Deleted cache avatar \"{}\" with \"{}\" days old", entry.getKey(), TimeUnit.MILLISECONDS.toDays(elapsed));
                         }
                     }
-                } catch (Exception ignored) {
-                    FiguraMod.debug("Failed to delete cache avatar \"{}\"", IOUtils.getFileNameOrEmpty(child));
+                    trim();
+                    indexDirty = true;
                 }
+            } finally {
+                READY.complete(null);
+            }
+        });
+    }
+
+    /**
+     * Writes the access times every now and then, so the least recently used order and expiry survive restarts
+     */
+    public static void tick() {
+        if (++indexTicks < INDEX_SAVE_TICKS)
+            return;
+        indexTicks = 0;
+
+        synchronized (INDEX) {
+            if (!indexDirty)
+                return;
+        }
+
+        LocalAvatarLoader.async(() -> {
+            // only the copy is made under the lock, so lookups never wait for the disk
+            CompoundTag nbt;
+            synchronized (INDEX) {
+                if (!indexDirty)
+                    return;
+                nbt = copyIndex();
+                indexDirty = false;
             }
+            writeIndex(nbt);
         });
     }
 
+    /**
+     * Loads the avatar from the cache, or runs the fallback when it is not cached.
+     * Lookups made before the index was read wait for it, instead of downloading avatars that are already on disk
+     */
+    public static void loadOrElse(String hash, UserData target, Runnable fallback) {
+        if (!READY.isDone()) {
+            READY.thenRun(() -> Minecraft.getInstance().execute(() -> loadOrElse(hash, target, fallback)));
+            return;
+        }
+
+        if (!checkAndLoad(hash, target))
+            fallback.run();
+    }
+
     public static boolean checkAndLoad(String hash, UserData target) {
-        Path p = getAvatarCacheDirectory();
-        p = p.resolve(hash + ".moon");
+        synchronized (INDEX) {
+            if (!READY.isDone())
+                return false;
+
+            CacheEntry entry = INDEX.get(hash);
+            if (entry == null)
+                return false;
 
-        if (Files.exists(p)) {
-            load(hash, target);
-            return true;
+            entry.lastAccess = System.currentTimeMillis();
+            indexDirty = true;
         }
 
-        return false;
+        load(hash, target);
+        return true;
     }
 
     public static void load(String hash, UserData target) {
         LocalAvatarLoader.async(() -> {
-            Path path = getAvatarCacheDirectory().resolve(hash + ".moon");
+            Path path = getFile(hash);
             try {
-                target.loadAvatar(NbtIo.readCompressed(Files.newInputStream(path)));
+                byte[] bytes = Files.readAllBytes(path);
+
+                // make sure the file was not changed or left incomplete
+                CacheEntry entry;
+                synchronized (INDEX) {
+                    entry = INDEX.get(hash);
+                }
+                if (entry != null && (entry.size != bytes.length || entry.checksum != checksum(bytes)))
+                    throw new IOException("Checksum mismatch");
+
+                target.loadAvatar(NbtIo.readCompressed(new ByteArrayInputStream(bytes)), bytes.length, hash);
                 FiguraMod.debug("Loaded avatar \"{}\" from cache to \"{}\"", hash, target.id);
             } catch (Exception e) {
                 FiguraMod.LOGGER.error("Failed to load cache avatar: " + hash, e);
+                remove(hash);
             }
         });
     }
 
-    public static void save(String hash, CompoundTag nbt) {
+    /**
+     * Saves the avatar file exactly as it was downloaded, without compressing it again
+     */
+    public static void save(String hash, byte[] bytes) {
         LocalAvatarLoader.async(() -> {
-            Path file = getAvatarCacheDirectory().resolve(hash + ".moon");
             try {
-                NbtIo.writeCompressed(nbt, Files.newOutputStream(file));
-                FiguraMod.debug("Saved avatar \"{}\" on cache", hash);
+                write(hash, bytes);
             } catch (Exception e) {
                 FiguraMod.LOGGER.error("Failed to save avatar on cache: " + hash, e);
             }
         });
     }
 
+    private static void write(String hash, byte[] bytes) throws IOException {
+        // write to a temporary file first, so a crash never leaves half written avatars behind
+        writeAtomic(getFile(hash), bytes);
+
+        synchronized (INDEX) {
+            CacheEntry old = INDEX.put(hash, new CacheEntry(bytes.length, System.currentTimeMillis(), checksum(bytes)));
+            if (old != null)
+                totalSize -= old.size;
+            totalSize += bytes.length;
+
+            trim();
+            indexDirty = true;
+        }
+
+        FiguraMod.debug("Saved avatar \"{}\" on cache", hash);
+    }
+
     public static void clearCache() {
         LocalAvatarLoader.async(() -> {
+            synchronized (INDEX) {
+                INDEX.clear();
+                totalSize = 0;
+            }
+
             Path file = getAvatarCacheDirectory();
 
             if (!(Files.exists(file) && Files.isDirectory(file)))
@@ -103,8 +216,173 @@ public class CacheAvatarLoader {
         });
     }
 
+    /**
+     * Removes the least recently used avatars until the cache fits in its size limit
+     */
+    public static void trimCache() {
+        LocalAvatarLoader.async(() -> {
+            synchronized (INDEX) {
+                trim();
+                indexDirty = true;
+            }
+        });
+    }
+
+    private static void trim() {
+        long limit = Configs.AVATAR_CACHE_SIZE.value * 1024L * 1024L;
+        Iterator<Map.Entry<String, CacheEntry>> iterator = INDEX.entrySet().iterator();
+        while (totalSize > limit && iterator.hasNext()) {
+            Map.Entry<String, CacheEntry> entry = iterator.next();
+            iterator.remove();
+            totalSize -= entry.getValue().size;
+            delete(entry.getKey());
+            FiguraMod.debug("Evicted cache avatar \"{}\"", entry.getKey());
+        }
+    }
+
+    private static void remove(String hash) {
+        synchronized (INDEX) {
+            CacheEntry entry = INDEX.remove(hash);
+            if (entry != null)
+                totalSize -= entry.size;
+            delete(hash);
+            indexDirty = true;
+        }
+    }
+
+    private static void delete(String hash) {
+        try {
+            Files.deleteIfExists(getFile(hash));
+        } catch (Exception ignored) {
+            FiguraMod.debug("Failed to delete cache avatar \"{}\"", hash);
+        }
+    }
+
+    // -- index -- //
+
+    private static void readIndex(Path dir) {
+        Path path = dir.resolve(INDEX_FILE);
+        if (!Files.exists(path))
+            return;
+
+        try (InputStream stream = Files.newInputStream(path)) {
+            CompoundTag nbt = NbtIo.readCompressed(stream);
+            for (String hash : nbt.getAllKeys()) {
+                CompoundTag tag = nbt.getCompound(hash);
+                INDEX.put(hash, new CacheEntry(tag.getLong("size"), tag.getLong("access"), tag.getLong("crc")));
+            }
+        } catch (Exception e) {
+            FiguraMod.LOGGER.warn("Failed to read avatar cache index, rebuilding it", e);
+            INDEX.clear();
+        }
+    }
+
+    /**
+     * Matches the index with the files actually in the cache folder
+     */
+    private static void syncIndex(Path dir) {
+        List<Path> children = IOUtils.listPaths(dir);
+        if (children == null) {
+            INDEX.clear();
+            return;
+        }
+
+        Map<String, Path> files = new LinkedHashMap<>();
+        for (Path child : children) {
+            String name = IOUtils.getFileNameOrEmpty(child);
+            if (name.endsWith(".moon")) {
+                files.put(name.substring(0, name.length() - 5), child);
+            } else if (name.endsWith(".tmp")) {
+                // leftovers from an interrupted write
+                try {
+                    Files.deleteIfExists(child);
+                } catch (Exception ignored) {}
+            }
+        }
+
+        // index entries without files
+        INDEX.keySet().removeIf(hash -> !files.containsKey(hash));
+
+        // files not in the index, or which do not match it anymore
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            try {
+                long size = Files.size(file.getValue());
+                CacheEntry entry = INDEX.get(file.getKey());
+                if (entry == null || entry.size != size) {
+                    byte[] bytes = Files.readAllBytes(file.getValue());
+                    long access = Files.getLastModifiedTime(file.getValue()).toMillis();
+                    INDEX.put(file.getKey(), new CacheEntry(bytes.length, access, checksum(bytes)));
+                }
+            } catch (Exception ignored) {
+                INDEX.remove(file.getKey());
+            }
+        }
+
+        // put the loaded entries back in least recently used order
+        List<Map.Entry<String, CacheEntry>> entries = new ArrayList<>(INDEX.entrySet());
+        entries.sort(Map.Entry.comparingByValue((a, b) -> Long.compare(a.lastAccess, b.lastAccess)));
+        INDEX.clear();
+        for (Map.Entry<String, CacheEntry> entry : entries) {
+            INDEX.put(entry.getKey(), entry.getValue());
+            totalSize += entry.getValue().size;
+        }
+    }
+
+    private static CompoundTag copyIndex() {
+        CompoundTag nbt = new CompoundTag();
+        for (Map.Entry<String, CacheEntry> entry : INDEX.entrySet()) {
+            CompoundTag tag = new CompoundTag();
+            tag.putLong("size", entry.getValue().size);
+            tag.putLong("access", entry.getValue().lastAccess);
+            tag.putLong("crc", entry.getValue().checksum);
+            nbt.put(entry.getKey(), tag);
+        }
+        return nbt;
+    }
+
+    private static void writeIndex(CompoundTag nbt) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            NbtIo.writeCompressed(nbt, baos);
+            writeAtomic(getAvatarCacheDirectory().resolve(INDEX_FILE), baos.toByteArray());
+        } catch (Exception e) {
+            FiguraMod.LOGGER.warn("Failed to save avatar cache index", e);
+        }
+    }
+
+    private static void writeAtomic(Path path, byte[] bytes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static Path getFile(String hash) {
+        return getAvatarCacheDirectory().resolve(hash + ".moon");
+    }
+
     // cache directory
     public static Path getAvatarCacheDirectory() {
         return IOUtils.getOrCreateDir(FiguraMod.getCacheDirectory(), "avatars");
     }
+
+    private static class CacheEntry {
+        private final long size, checksum;
+        private long lastAccess;
+
+        private CacheEntry(long size, long lastAccess, long checksum) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.checksum = checksum;
+        }
+    }
 }
@@ -18,7 +18,9 @@ import org.figuramc.figura.utils.FiguraResourceListener;
 import org.figuramc.figura.utils.FiguraText;
 import org.figuramc.figura.utils.IOUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.*;
 import java.util.HashMap;
 import java.util.List;
@@ -44,8 +46,10 @@ public class LocalAvatarLoader {
     private static WatchService watcher;
 
     public static final HashMap<ResourceLocation, CompoundTag> CEM_AVATARS = new HashMap<>();
+    public static final HashMap<ResourceLocation, Integer> CEM_SIZES = new HashMap<>();
     public static final FiguraResourceListener AVATAR_LISTENER = FiguraResourceListener.createResourceListener("cem", manager -> {
         CEM_AVATARS.clear();
+        CEM_SIZES.clear();
         AvatarManager.clearCEMAvatars();
 
         for (Map.Entry<ResourceLocation, Resource> cem : manager.listResources("cem", location -> location.getNamespace().equals(FiguraMod.MOD_ID) && location.getPath().endsWith(".moon")).entrySet()) {
@@ -61,8 +65,10 @@ public class LocalAvatarLoader {
 
             // nbt
             CompoundTag nbt;
-            try {
-                nbt = NbtIo.readCompressed(cem.getValue().open());
+            byte[] bytes;
+            try (InputStream stream = cem.getValue().open()) {
+                bytes = stream.readAllBytes();
+                nbt = NbtIo.readCompressed(new ByteArrayInputStream(bytes));
             } catch (Exception e) {
                 FiguraMod.LOGGER.error("Failed to load " + id + " avatar", e);
                 continue;
@@ -71,6 +77,7 @@ public class LocalAvatarLoader {
             // insert
             FiguraMod.LOGGER.info("Loaded CEM model for " + id);
             CEM_AVATARS.put(id, nbt);
+            CEM_SIZES.put(id, bytes.length);
         }
     });
 
@@ -148,8 +155,8 @@ public class LocalAvatarLoader {
                 if (!animations.isEmpty())
                     nbt.put("animations", animations);
 
-                // load
-                target.loadAvatar(nbt);
+                // load, the size is measured here once since the avatar was never written to a file
+                target.loadAvatar(nbt, IOUtils.getCompressedSize(nbt));
             } catch (Throwable e) {
                 loadError = e.getMessage();
                 FiguraMod.LOGGER.error("Failed to load avatar from " + finalPath, e);
@@ -27,15 +27,18 @@ import org.figuramc.figura.utils.TextUtils;
 import org.figuramc.figura.utils.Version;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -426,9 +429,14 @@ public class NetworkStuff {
 
             //success
             try {
-                CompoundTag nbt = NbtIo.readCompressed(stream);
-                CacheAvatarLoader.save(hash, nbt);
-                target.loadAvatar(nbt);
+                // keep the downloaded file as is, so it can be cached without compressing it again
+                byte[] bytes = stream.readAllBytes();
+                CompoundTag nbt = NbtIo.readCompressed(new ByteArrayInputStream(bytes));
+                if (matchesHash(bytes, hash))
+                    CacheAvatarLoader.save(hash, bytes);
+                else
+                    FiguraMod.debug("Downloaded avatar does not match its hash \"{}\", skipping cache", hash);
+                target.loadAvatar(nbt, bytes.length, hash);
             } catch (Exception e) {
                 FiguraMod.LOGGER.error("Failed to load avatar for " + target.id, e);
             }
@@ -437,6 +445,16 @@ public class NetworkStuff {
     }
 
 
+    private static boolean matchesHash(byte[] bytes, String hash) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(digest).equalsIgnoreCase(hash);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+
     // -- ws stuff -- //
 
 
@@ -195,6 +195,10 @@ class DebugCommand {
         aMeta.addProperty("name", avatar.name);
         aMeta.addProperty("entityName", avatar.entityName);
         aMeta.addProperty("fileSize", avatar.fileSize);
+        JsonObject sizes = new JsonObject();
+        for (Map.Entry<String, Integer> entry : avatar.sectionSizes.entrySet())
+            sizes.addProperty(entry.getKey(), entry.getValue());
+        aMeta.add("sectionSizes", sizes);
         aMeta.addProperty("isHost", avatar.isHost);
         aMeta.addProperty("loaded", avatar.loaded);
         aMeta.addProperty("owner", avatar.owner.toString());
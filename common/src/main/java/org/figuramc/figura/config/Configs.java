@@ -11,6 +11,7 @@ import org.figuramc.figura.backend2.NetworkStuff;
 import org.figuramc.figura.gui.FiguraToast;
 import org.figuramc.figura.gui.screens.ConfigScreen;
 import org.figuramc.figura.lua.FiguraLuaPrinter;
+import org.figuramc.figura.lua.LuaPrototypeCache;
 import org.figuramc.figura.lua.api.ConfigAPI;
 import org.figuramc.figura.permissions.PermissionManager;
 import org.figuramc.figura.permissions.Permissions;
@@ -135,7 +136,8 @@ public class Configs {
             }};
     public static final ConfigType.BoolConfig
             ALLOW_FP_HANDS = new ConfigType.BoolConfig("allow_fp_hands", RENDERING, false),
-            FIRST_PERSON_MATRICES = new ConfigType.BoolConfig("first_person_matrices", RENDERING, true);
+            FIRST_PERSON_MATRICES = new ConfigType.BoolConfig("first_person_matrices", RENDERING, true),
+            PARALLEL_VERTICES = new ConfigType.BoolConfig("parallel_vertices", RENDERING, false);
 
 
     // -- ACTION WHEEL -- // 
@@ -275,10 +277,24 @@ public class Configs {
             NetworkStuff.reAuth();
         }
     };
+    public static final ConfigType.PositiveIntConfig
+            AVATAR_CACHE_SIZE = new ConfigType.PositiveIntConfig("avatar_cache_size", DEV, 256) {
+        @Override
+        public void onChange() {
+            super.onChange();
+            CacheAvatarLoader.trimCache();
+        }
+    };
+    public static final ConfigType.PositiveIntConfig
+            HIBERNATION_TIME = new ConfigType.PositiveIntConfig("hibernation_time", DEV, 30),
+            AVATAR_MEMORY_BUDGET = new ConfigType.PositiveIntConfig("avatar_memory_budget", DEV, 1024);
+    public static final ConfigType.BoolConfig
+            LUA_BYTECODE_CACHE = new ConfigType.BoolConfig("lua_bytecode_cache", DEV, false);
     @SuppressWarnings("unused")
     public static final ConfigType.ButtonConfig
             CLEAR_CACHE = new ConfigType.ButtonConfig("clear_cache", DEV, () -> {
         CacheAvatarLoader.clearCache();
+        LuaPrototypeCache.clearCache();
         LocalAvatarFetcher.clearCache();
         ConfigScreen.clearCache();
         FiguraRuntimeResources.clearCache();
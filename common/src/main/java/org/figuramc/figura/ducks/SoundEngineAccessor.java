@@ -4,6 +4,7 @@ import com.mojang.blaze3d.audio.Library;
 import net.minecraft.client.sounds.ChannelAccess;
 import net.minecraft.client.sounds.SoundBufferLibrary;
 import net.minecraft.sounds.SoundSource;
+import org.figuramc.figura.lua.api.sound.CustomSound;
 import org.figuramc.figura.lua.api.sound.LuaSound;
 
 import java.util.UUID;
@@ -12,6 +13,7 @@ public interface SoundEngineAccessor {
 
     void figura$addSound(LuaSound sound);
     void figura$stopSound(UUID owner, String name);
+    void figura$stopSound(CustomSound sound);
     void figura$stopAllSounds();
     ChannelAccess.ChannelHandle figura$createHandle(UUID owner, String name, Library.Pool pool);
     float figura$getVolume(SoundSource category);
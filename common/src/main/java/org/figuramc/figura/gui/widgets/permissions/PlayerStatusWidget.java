@@ -19,7 +19,12 @@ public class PlayerStatusWidget extends StatusWidget {
 
     private static final List<Function<Avatar, MutableComponent>> HOVER_TEXT = List.of(
             avatar -> FiguraText.of("gui.permissions.size")
-                    .append("\n• ").append(MathUtils.asFileSize(avatar.fileSize)),
+                    .append("\n• ").append(MathUtils.asFileSize(avatar.fileSize))
+                    .append("\n\n").append(FiguraText.of("gui.permissions.memory", MathUtils.asFileSize(avatar.getMemory())))
+                    .append("\n• ").append(FiguraText.of("gui.permissions.memory.model", MathUtils.asFileSize(avatar.modelMemory)))
+                    .append("\n• ").append(FiguraText.of("gui.permissions.memory.textures", MathUtils.asFileSize(avatar.textureMemory)))
+                    .append("\n• ").append(FiguraText.of("gui.permissions.memory.sounds", MathUtils.asFileSize(avatar.soundMemory)))
+                    .append("\n• ").append(FiguraText.of("gui.permissions.memory.scripts", MathUtils.asFileSize(avatar.scriptMemory))),
             avatar -> FiguraText.of("gui.permissions.complexity")
                     .append("\n• ").append(String.valueOf(avatar.complexity.pre)),
             avatar -> FiguraText.of("gui.permissions.init")
@@ -54,6 +59,8 @@ public class PlayerStatusWidget extends StatusWidget {
             return;
         }
 
+        avatar.updateMemory();
+
         // size
         status = !FiguraMod.isLocal(owner) ? 3 : avatar.fileSize > NetworkStuff.getSizeLimit() ? 1 : avatar.fileSize > NetworkStuff.getSizeLimit() * 0.75 ? 2 : 3;
 
@@ -5,6 +5,7 @@ import net.minecraft.nbt.Tag;
 import net.minecraft.world.entity.Entity;
 import org.figuramc.figura.FiguraMod;
 import org.figuramc.figura.avatar.Avatar;
+import org.figuramc.figura.lua.api.AnimationAPI;
 import org.figuramc.figura.lua.api.AvatarAPI;
 import org.figuramc.figura.lua.api.HostAPI;
 import org.figuramc.figura.lua.api.RendererAPI;
@@ -16,7 +17,9 @@ import org.figuramc.figura.lua.api.event.EventsAPI;
 import org.figuramc.figura.lua.api.event.LuaEvent;
 import org.figuramc.figura.lua.api.keybind.KeybindAPI;
 import org.figuramc.figura.lua.api.nameplate.NameplateAPI;
+import org.figuramc.figura.lua.api.particle.ParticleAPI;
 import org.figuramc.figura.lua.api.ping.PingAPI;
+import org.figuramc.figura.lua.api.sound.SoundAPI;
 import org.figuramc.figura.lua.api.vanilla_model.VanillaModelAPI;
 import org.figuramc.figura.permissions.Permissions;
 import org.luaj.vm2.*;
@@ -30,9 +33,11 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 /**
@@ -57,30 +62,31 @@ public class FiguraLuaRuntime {
     //---------------------------------
 
     public final Avatar owner;
-    private final Globals userGlobals = new Globals();
+    private final Globals userGlobals;
     private final LuaValue setHookFunction;
     protected final Map<String, String> scripts = new HashMap<>();
     private final Map<String, Varargs> loadedScripts = new HashMap<>();
     private final Stack<String> loadingScripts = new Stack<>();
-    public final LuaTypeManager typeManager = new LuaTypeManager();
+    public final LuaTypeManager typeManager;
+    private Instance current; // entity running on a shared runtime
 
     public FiguraLuaRuntime(Avatar avatar, Map<String, String> scripts) {
+        this(avatar, scripts, LuaRuntimePool.claim());
+    }
+
+    private FiguraLuaRuntime(Avatar avatar, Map<String, String> scripts, Prepared prepared) {
         this.owner = avatar;
         this.scripts.putAll(scripts);
 
-        // Each user gets their own set of globals as well.
-        userGlobals.load(new JseBaseLib());
-        userGlobals.load(new Bit32Lib());
-        userGlobals.load(new TableLib());
-        userGlobals.load(new JseStringLib());
-        userGlobals.load(new JseMathLib());
-
-        LuaC.install(userGlobals);
-
-        userGlobals.load(new DebugLib());
-        setHookFunction = userGlobals.get("debug").get("sethook");
+        // a prepared runtime is bound to exactly one avatar, never shared or reused
+        if (!prepared.claimed().compareAndSet(false, true))
+            throw new IllegalStateException("Prepared runtime was already claimed");
 
-        setupFiguraSandbox();
+        this.userGlobals = prepared.globals();
+        this.setHookFunction = prepared.setHookFunction();
+        this.typeManager = prepared.typeManager();
+        if (prepared.error() != null)
+            error(prepared.error());
 
         FiguraAPIManager.setupTypesAndAPIs(this);
         setUser(null);
@@ -114,24 +120,62 @@ public class FiguraLuaRuntime {
     }
 
     public Entity getUser() {
+        if (current != null)
+            return current.getUser();
         return entityAPI != null && entityAPI.isLoaded() ? entityAPI.getEntity() : null;
     }
 
     // init runtime //
 
-    private void setupFiguraSandbox() {
+    /**
+     * The part of a runtime that does not depend on its avatar, which is the same for every runtime
+     */
+    private static final Object STRING_METATABLE_LOCK = new Object();
+
+    static Prepared prepare() {
+        // Each user gets their own set of globals as well.
+        Globals userGlobals = new Globals();
+        userGlobals.load(new JseBaseLib());
+        userGlobals.load(new Bit32Lib());
+        userGlobals.load(new TableLib());
+        // the string metatable is global, so only the first runtime sets it up, then it is made read only
+        synchronized (STRING_METATABLE_LOCK) {
+            userGlobals.load(new JseStringLib());
+            if (!(LuaString.s_metatable instanceof ReadOnlyLuaTable))
+                LuaString.s_metatable = new ReadOnlyLuaTable(LuaString.s_metatable);
+        }
+        userGlobals.load(new JseMathLib());
+
+        LuaC.install(userGlobals);
+
+        userGlobals.load(new DebugLib());
+        LuaValue setHookFunction = userGlobals.get("debug").get("sethook");
+
+        LuaError error = setupFiguraSandbox(userGlobals);
+
+        LuaTypeManager typeManager = new LuaTypeManager();
+        for (Class<?> clazz : FiguraAPIManager.WHITELISTED_CLASSES)
+            typeManager.generateMetatableFor(clazz);
+
+        return new Prepared(userGlobals, setHookFunction, typeManager, error, new AtomicBoolean());
+    }
+
+    private static LuaError setupFiguraSandbox(Globals userGlobals) {
+        LuaError error = null;
+
         // actual sandbox file
         try (InputStream inputStream = FiguraMod.class.getResourceAsStream("/assets/" + FiguraMod.MOD_ID + "/scripts/sandbox.lua")) {
             if (inputStream == null) throw new IOException("Unable to get resource");
-            userGlobals.load(new String(inputStream.readAllBytes()), "sandbox").call();
+            loadCached(userGlobals, "sandbox", new String(inputStream.readAllBytes()), userGlobals).call();
         } catch (Exception e) {
-            error(new LuaError("Failed to load builtin sandbox script:\n" + e.getMessage()));
+            error = new LuaError("Failed to load builtin sandbox script:\n" + e.getMessage());
         }
 
-        // read only string metatable
-        LuaString.s_metatable = new ReadOnlyLuaTable(LuaString.s_metatable);
+        return error;
     }
 
+    record Prepared(Globals globals, LuaValue setHookFunction, LuaTypeManager typeManager, LuaError error, AtomicBoolean claimed) {}
+
     private final VarArgFunction requireFunction = new VarArgFunction() {
         @Override
         public Varargs invoke(Varargs arg) {
@@ -236,7 +280,7 @@ public class FiguraLuaRuntime {
         // load math library
         try (InputStream inputStream = FiguraMod.class.getResourceAsStream("/assets/" + FiguraMod.MOD_ID + "/scripts/math.lua")) {
             if (inputStream == null) throw new IOException("Unable to get resource");
-            userGlobals.load(new String(inputStream.readAllBytes()), "math").call();
+            loadCached("math", new String(inputStream.readAllBytes()), userGlobals).call();
         } catch (Exception e) {
             error(new LuaError("Failed to load builtin math script:\n" + e.getMessage()));
         }
@@ -353,7 +397,7 @@ public class FiguraLuaRuntime {
         int split = name.lastIndexOf('.');
         String path = split == -1 ? "" : name.substring(0, split);
         String fileName = split == -1 ? name : name.substring(split + 1);
-        Varargs value = userGlobals.load(src, name).invoke(LuaValue.varargsOf(LuaValue.valueOf(path), LuaValue.valueOf(fileName)));
+        Varargs value = loadCached(name, src, userGlobals).invoke(LuaValue.varargsOf(LuaValue.valueOf(path), LuaValue.valueOf(fileName)));
         if (value == LuaValue.NIL)
             value = LuaValue.TRUE;
 
@@ -388,11 +432,18 @@ public class FiguraLuaRuntime {
     // error ^-^ //
 
     public void error(Throwable e) {
-        FiguraLuaPrinter.sendLuaError(parseError(e), owner);
-        owner.scriptError = true;
-        owner.luaRuntime = null;
-        owner.clearParticles();
-        owner.clearSounds();
+        error(current != null ? current.avatar : owner, e);
+    }
+
+    /**
+     * Stops the scripts of the given avatar, shared runtimes keep running for every other entity
+     */
+    public void error(Avatar avatar, Throwable e) {
+        FiguraLuaPrinter.sendLuaError(parseError(e), avatar);
+        avatar.scriptError = true;
+        avatar.luaRuntime = null;
+        avatar.clearParticles();
+        avatar.clearSounds();
     }
 
     public static LuaError parseError(Throwable e) {
@@ -431,13 +482,32 @@ public class FiguraLuaRuntime {
         return userGlobals.load(src, name, userGlobals);
     }
 
-    public Varargs run(Object toRun, Avatar.Instructions limit, Object... args) {
-        // parse args
-        LuaValue[] values = new LuaValue[args.length];
-        for (int i = 0; i < values.length; i++)
-            values[i] = typeManager.javaToLua(args[i]).arg1();
+    /**
+     * Loads a script compiled by any runtime before, instead of compiling it again
+     */
+    private LuaValue loadCached(String name, String src, LuaValue environment) {
+        return loadCached(userGlobals, name, src, environment);
+    }
+
+    private static LuaValue loadCached(Globals userGlobals, String name, String src, LuaValue environment) {
+        try {
+            return userGlobals.loader.load(LuaPrototypeCache.get(name, src), name, environment);
+        } catch (IOException e) {
+            throw new LuaError("load " + name + ": " + e);
+        }
+    }
 
-        Varargs val = LuaValue.varargsOf(values);
+    public Varargs run(Object toRun, Avatar.Instructions limit, Object... args) {
+        // parse args, the array is not reused since scripts can keep the varargs around
+        Varargs val;
+        if (args.length == 0) {
+            val = LuaValue.NONE;
+        } else {
+            LuaValue[] values = new LuaValue[args.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = typeManager.javaToLua(args[i]).arg1();
+            val = LuaValue.varargsOf(values);
+        }
 
         // set instructions limit
         setInstructionLimit(limit.remaining);
@@ -465,4 +535,114 @@ public class FiguraLuaRuntime {
         // failsafe return
         return null;
     }
+
+    // shared entity runtimes //
+
+    public Instance createInstance(Avatar avatar) {
+        return new Instance(avatar);
+    }
+
+    // globals bound to each entity of a shared runtime
+    private static final String[] INSTANCE_GLOBALS = {"models", "animations", "sounds", "particles", "textures", "avatar", "user", "player"};
+    private static final int MODELS = 0, ANIMATIONS = 1, SOUNDS = 2, PARTICLES = 3, TEXTURES = 4, AVATAR = 5, USER = 6, PLAYER = 7;
+
+    /**
+     * Runs the event or function for a single entity of a shared runtime, binding its own globals while it runs.
+     * Events also get its instance table as their first argument
+     */
+    public Varargs run(Instance instance, Object toRun, Avatar.Instructions limit, Object... args) {
+        if (instance == null)
+            return run(toRun, limit, args);
+
+        Instance prev = current;
+        current = instance;
+
+        // keep the previous bindings, so code running outside of this call never sees this entity
+        // the instance reuses its own arrays, unless it is already running further up the stack
+        LuaValue[] previous = instance.depth == 0 ? instance.previous : new LuaValue[INSTANCE_GLOBALS.length];
+        instance.depth++;
+        for (int i = 0; i < INSTANCE_GLOBALS.length; i++) {
+            previous[i] = userGlobals.rawget(INSTANCE_GLOBALS[i]);
+            userGlobals.set(INSTANCE_GLOBALS[i], instance.values[i]);
+        }
+
+        Object[] instanceArgs = null;
+        try {
+            if (!(toRun instanceof LuaEvent || toRun instanceof String))
+                return run(toRun, limit, args);
+
+            // the arguments are converted to lua values before anything runs, so the buffer is free again once run starts
+            instanceArgs = instance.getArgs(args.length + 1);
+            instanceArgs[0] = instance.table;
+            System.arraycopy(args, 0, instanceArgs, 1, args.length);
+            return run(toRun, limit, instanceArgs);
+        } finally {
+            if (instanceArgs != null)
+                Arrays.fill(instanceArgs, null);
+            for (int i = 0; i < INSTANCE_GLOBALS.length; i++) {
+                userGlobals.set(INSTANCE_GLOBALS[i], previous[i]);
+                previous[i] = null;
+            }
+            instance.depth--;
+            current = prev;
+        }
+    }
+
+    /**
+     * Per entity state of a runtime shared by every entity avatar of the same type.
+     * The scripts only run once, so anything that should be per entity is stored in the instance table,
+     * which also holds the entity and its models
+     */
+    public class Instance {
+
+        public final Avatar avatar;
+        public final LuaTable table = new LuaTable();
+        private final LuaValue[] values = new LuaValue[INSTANCE_GLOBALS.length];
+        private final LuaValue[] previous = new LuaValue[INSTANCE_GLOBALS.length];
+        private final Object[][] argBuffers = new Object[8][];
+        private int depth;
+        private EntityAPI<?> entity;
+
+        private Instance(Avatar avatar) {
+            this.avatar = avatar;
+
+            LuaValue models = avatar.renderer == null ? LuaValue.NIL : typeManager.javaToLua(avatar.renderer.root).arg1();
+            values[MODELS] = models;
+            values[ANIMATIONS] = typeManager.javaToLua(new AnimationAPI(avatar)).arg1();
+            values[SOUNDS] = typeManager.javaToLua(new SoundAPI(avatar)).arg1();
+            values[PARTICLES] = typeManager.javaToLua(new ParticleAPI(avatar)).arg1();
+            values[TEXTURES] = typeManager.javaToLua(new TextureAPI(avatar)).arg1();
+            values[AVATAR] = typeManager.javaToLua(new AvatarAPI(avatar)).arg1();
+            table.set("models", models);
+            setUser(null);
+        }
+
+        private Object[] getArgs(int length) {
+            if (length >= argBuffers.length)
+                return new Object[length];
+            Object[] args = argBuffers[length];
+            if (args == null)
+                args = argBuffers[length] = new Object[length];
+            return args;
+        }
+
+        public void setUser(Entity user) {
+            Object val;
+            if (user == null) {
+                entity = null;
+                val = NullEntity.INSTANCE;
+            } else {
+                val = entity = EntityAPI.wrap(user);
+            }
+
+            LuaValue value = typeManager.javaToLua(val).arg1();
+            values[USER] = value;
+            values[PLAYER] = value;
+            table.set("entity", value);
+        }
+
+        public Entity getUser() {
+            return entity != null && entity.isLoaded() ? entity.getEntity() : null;
+        }
+    }
 }
@@ -0,0 +1,158 @@
+package org.figuramc.figura.lua;
+
+import org.figuramc.figura.FiguraMod;
+import org.figuramc.figura.config.Configs;
+import org.figuramc.figura.utils.IOUtils;
+import org.luaj.vm2.LoadState;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.Prototype;
+import org.luaj.vm2.compiler.DumpState;
+import org.luaj.vm2.compiler.LuaC;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Compiled scripts shared by every runtime, keyed by the hash of their name and source.
+ * The same scripts are compiled over and over by everyone wearing the same avatar, and by every reload,
+ * so each one is only compiled once, and can optionally be kept on disk between sessions
+ */
+public class LuaPrototypeCache {
+
+    private static final int MAX_SIZE = 1024;
+    private static final int DIGEST_SIZE = 32;
+
+    // access ordered, the first entry is the least recently used
+    private static final LinkedHashMap<String, Prototype> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @return the compiled script, only compiling it if it was not compiled before
+     */
+    public static Prototype get(String name, String src) {
+        // encoded the same way lua strings are, so string literals decode back the same as with Globals.load
+        LuaString luaSrc = LuaString.valueOf(src);
+        byte[] bytes = new byte[luaSrc.m_length];
+        luaSrc.copyInto(0, bytes, 0, bytes.length);
+        String hash = HexFormat.of().formatHex(digest(name.getBytes(StandardCharsets.UTF_8), bytes));
+
+        synchronized (CACHE) {
+            Prototype prototype = CACHE.get(hash);
+            if (prototype != null)
+                return prototype;
+        }
+
+        Prototype prototype = readBytecode(hash, name);
+        if (prototype == null) {
+            try {
+                prototype = LuaC.instance.compile(new ByteArrayInputStream(bytes), name);
+            } catch (IOException e) {
+                throw new LuaError("load " + name + ": " + e);
+            }
+            writeBytecode(hash, prototype);
+        }
+
+        synchronized (CACHE) {
+            CACHE.put(hash, prototype);
+            if (CACHE.size() > MAX_SIZE)
+                CACHE.remove(CACHE.keySet().iterator().next());
+        }
+
+        return prototype;
+    }
+
+    public static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+
+        List<Path> files = IOUtils.listPaths(getCacheDirectory());
+        if (files == null)
+            return;
+
+        for (Path file : files)
+            IOUtils.deleteFile(file);
+    }
+
+    // -- bytecode -- //
+
+    /**
+     * Reads a compiled script from disk.
+     * The file starts with a digest of the script hash and the bytecode, so only files written
+     * by this cache for this exact source are loaded, and anything else is thrown away and compiled again
+     */
+    private static Prototype readBytecode(String hash, String name) {
+        if (!Configs.LUA_BYTECODE_CACHE.value)
+            return null;
+
+        Path path = getCacheDirectory().resolve(hash + ".luac");
+        if (!Files.exists(path))
+            return null;
+
+        try {
+            byte[] file = Files.readAllBytes(path);
+            if (file.length <= DIGEST_SIZE)
+                throw new IOException("File too small");
+
+            byte[] code = Arrays.copyOfRange(file, DIGEST_SIZE, file.length);
+            byte[] expected = digest(hash.getBytes(StandardCharsets.UTF_8), code);
+            if (!MessageDigest.isEqual(expected, Arrays.copyOf(file, DIGEST_SIZE)))
+                throw new IOException("Digest mismatch");
+
+            Prototype prototype = LoadState.undump(new ByteArrayInputStream(code), name);
+            if (prototype == null)
+                throw new IOException("Not a lua binary chunk");
+
+            return prototype;
+        } catch (Exception e) {
+            FiguraMod.debug("Discarding cached bytecode \"{}\": {}", hash, e.getMessage());
+            IOUtils.deleteFile(path);
+            return null;
+        }
+    }
+
+    private static void writeBytecode(String hash, Prototype prototype) {
+        if (!Configs.LUA_BYTECODE_CACHE.value)
+            return;
+
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            // keep debug info, so errors still point to the right lines
+            DumpState.dump(prototype, baos, false);
+            byte[] code = baos.toByteArray();
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream(DIGEST_SIZE + code.length);
+            file.write(digest(hash.getBytes(StandardCharsets.UTF_8), code));
+            file.write(code);
+            IOUtils.writeFile(getCacheDirectory().resolve(hash + ".luac"), file.toByteArray());
+        } catch (Exception e) {
+            FiguraMod.debug("Failed to save bytecode \"{}\": {}", hash, e.getMessage());
+        }
+    }
+
+    private static byte[] digest(byte[] first, byte[] second) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(first);
+            digest.update((byte) 0);
+            digest.update(second);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Path getCacheDirectory() {
+        return IOUtils.getOrCreateDir(FiguraMod.getCacheDirectory(), "scripts");
+    }
+}
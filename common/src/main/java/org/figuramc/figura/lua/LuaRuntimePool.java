@@ -0,0 +1,55 @@
+package org.figuramc.figura.lua;
+
+import org.figuramc.figura.FiguraMod;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A few sandboxed runtimes prepared in the background, before any avatar asks for one.
+ * Each prepared runtime is taken by exactly one avatar and never given back, so nothing a script does can reach another avatar
+ */
+public class LuaRuntimePool {
+
+    private static final int SIZE = 4;
+
+    private static final ConcurrentLinkedQueue<FiguraLuaRuntime.Prepared> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger PENDING = new AtomicInteger();
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Figura Lua Runtime Pool");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public static void init() {
+        refill();
+    }
+
+    /**
+     * @return a prepared runtime that was never used, prepared right away when none is ready
+     */
+    static FiguraLuaRuntime.Prepared claim() {
+        FiguraLuaRuntime.Prepared prepared = POOL.poll();
+        refill();
+        return prepared != null ? prepared : FiguraLuaRuntime.prepare();
+    }
+
+    private static synchronized void refill() {
+        while (POOL.size() + PENDING.get() < SIZE) {
+            PENDING.incrementAndGet();
+            EXECUTOR.execute(() -> {
+                try {
+                    POOL.offer(FiguraLuaRuntime.prepare());
+                } catch (Exception e) {
+                    FiguraMod.LOGGER.error("Failed to prepare lua runtime", e);
+                } finally {
+                    PENDING.decrementAndGet();
+                }
+            });
+        }
+    }
+}
@@ -8,17 +8,28 @@ import org.luaj.vm2.lib.OneArgFunction;
 import org.luaj.vm2.lib.TwoArgFunction;
 import org.luaj.vm2.lib.VarArgFunction;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * One LuaTypeManager per LuaRuntime, so that people can be allowed to edit the metatables within.
+ * The reflected classes and methods behind the metatables are shared by every runtime.
  */
 public class LuaTypeManager {
 
+    // reflected classes and methods are the same for every runtime, so they are only looked up once
+    private static final Map<Class<?>, ClassInfo> CLASSES = new ConcurrentHashMap<>();
+    private static final Map<Method, MethodInfo> METHODS = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, String> TYPE_NAMES = new ConcurrentHashMap<>();
+
+    private static final Set<Class<?>> PLAIN_TYPES = Set.of(
+            String.class, Boolean.class, Double.class, Float.class, Integer.class, Long.class, Short.class, Byte.class, Character.class
+    );
+
     private final Map<Class<?>, LuaTable> metatables = new HashMap<>();
 
     public void generateMetatableFor(Class<?> clazz) {
@@ -32,55 +43,37 @@ public class LuaTypeManager {
             generateMetatableFor(clazz.getSuperclass());
         } catch (IllegalArgumentException ignored) {}
 
-        LuaTable metatable = new LuaTable();
+        // the tables are new for every runtime, since scripts can edit them, but their contents are built only once
+        ClassInfo info = CLASSES.computeIfAbsent(clazz, ClassInfo::new);
+        LuaTable metatable = new LuaTable(0, info.metamethods.size() + 2);
 
-        LuaTable indexTable = new LuaTable();
-        Class<?> currentClass = clazz;
-        while (currentClass.isAnnotationPresent(LuaWhitelist.class)) {
-            for (Method method : currentClass.getDeclaredMethods()) {
-                if (!method.isAnnotationPresent(LuaWhitelist.class)) {
-                    continue;
-                }
-                String name = method.getName();
-                if (name.startsWith("__")) { // metamethods
-                    if (metatable.rawget(name) == LuaValue.NIL) { // Only add the most recently declared metamethod, in the most specific subclass.
-                        if (name.equals("__index")) {
-                            // Custom __index implementation. First checks the regular __index table, and if it gets NIL, then calls the custom-defined __index function.
-                            metatable.set("__index", new TwoArgFunction() {
-                                final LuaFunction wrappedIndexer = getWrapper(method);
-                                @Override
-                                public LuaValue call(LuaValue arg1, LuaValue arg2) {
-                                    LuaValue result = indexTable.get(arg2);
-                                    if (result == LuaValue.NIL)
-                                        result = wrappedIndexer.call(arg1, arg2);
-                                    return result;
-                                }
-                            });
-                        } else {
-                            metatable.set(name, getWrapper(method));
-                        }
-                    }
-                } else { // regular methods
-                    indexTable.set(name, getWrapper(method));
-                }
-            }
-            currentClass = currentClass.getSuperclass();
-        }
+        LuaTable indexTable = new LuaTable(0, info.methods.size());
+        for (MethodInfo method : info.methods)
+            indexTable.set(method.name, getWrapper(method));
 
-        if (metatable.rawget("__index") == LuaValue.NIL)
-            metatable.set("__index", indexTable);
+        for (MethodInfo method : info.metamethods)
+            metatable.set(method.name, getWrapper(method));
 
-        // if we don't have a special toString, then have our toString give the type name from the annotation
-        if (metatable.rawget("__tostring") == LuaValue.NIL) {
-            metatable.set("__tostring", new OneArgFunction() {
-                private final LuaString val = LuaString.valueOf(clazz.getName());
+        if (info.indexer != null) {
+            // Custom __index implementation. First checks the regular __index table, and if it gets NIL, then calls the custom-defined __index function.
+            metatable.set("__index", new TwoArgFunction() {
+                final LuaFunction wrappedIndexer = getWrapper(info.indexer);
                 @Override
-                public LuaValue call(LuaValue arg) {
-                    return val;
+                public LuaValue call(LuaValue arg1, LuaValue arg2) {
+                    LuaValue result = indexTable.get(arg2);
+                    if (result == LuaValue.NIL)
+                        result = wrappedIndexer.call(arg1, arg2);
+                    return result;
                 }
             });
+        } else {
+            metatable.set("__index", indexTable);
         }
 
+        // if we don't have a special toString, then have our toString give the type name from the annotation
+        if (metatable.rawget("__tostring") == LuaValue.NIL)
+            metatable.set("__tostring", info.toString);
+
         // if we don't have a special __index, then have our indexer look in the next metatable up in the java inheritance.
         if (indexTable.rawget("__index") == LuaValue.NIL) {
             LuaTable superclassMetatable = metatables.get(clazz.getSuperclass());
@@ -105,106 +98,274 @@ public class LuaTypeManager {
         }
     }
 
-    private final Map<Class<?>, String> namesCache = new HashMap<>();
     public String getTypeName(Class<?> clazz) {
-        return namesCache.computeIfAbsent(clazz, someClass -> {
+        return TYPE_NAMES.computeIfAbsent(clazz, someClass -> {
             if (someClass.isAnnotationPresent(LuaTypeDoc.class))
                 return someClass.getAnnotation(LuaTypeDoc.class).name();
             return someClass.getSimpleName();
         });
     }
 
-    private static boolean[] getRequiredNotNil(Method method) {
-        Parameter[] params = method.getParameters();
-        boolean[] result = new boolean[params.length];
-        for (int i = 0; i < params.length; i++)
-            if (params[i].isAnnotationPresent(LuaNotNil.class))
-                result[i] = true;
-        return result;
+    public VarArgFunction getWrapper(Method method) {
+        return getWrapper(METHODS.computeIfAbsent(method, MethodInfo::new));
     }
 
-    public VarArgFunction getWrapper(Method method) {
-        return new VarArgFunction() {
-
-            private final boolean isStatic = Modifier.isStatic(method.getModifiers());
-            private Object caller;
-
-
-            private final Class<?> clazz = method.getDeclaringClass();
-            private final Class<?>[] argumentTypes = method.getParameterTypes();
-            private final Object[] actualArgs = new Object[argumentTypes.length];
-            private final boolean[] requiredNotNil = getRequiredNotNil(method);
-
-            @Override
-            public Varargs invoke(Varargs args) {
-
-                if (!isStatic)
-                    caller = args.checkuserdata(1, clazz);
-
-                // dirty hack for QOL of ignoring the first argument if the method is static and the arg matches the class type
-                int offset = isStatic && argumentTypes.length > 0 && !argumentTypes[0].isAssignableFrom(clazz) && args.isuserdata(1) && clazz.isAssignableFrom(args.checkuserdata(1).getClass()) ? 1 : 0;
-
-                // Fill in actualArgs from args
-                for (int i = 0; i < argumentTypes.length; i++) {
-                    int argIndex = i + (isStatic ? 1 : 2) + offset;
-                    boolean nil = args.isnil(argIndex);
-                    if (nil && requiredNotNil[i])
-                        throw new LuaError("bad argument: " + method.getName() + " " + argIndex + " do not allow nil values, expected " + FiguraDocsManager.getNameFor(argumentTypes[i]));
-                    if (argIndex <= args.narg() && !nil) {
-                        try {
-                            actualArgs[i] = switch (argumentTypes[i].getName()) {
-                                case "java.lang.Number", "java.lang.Double", "double" -> args.checkdouble(argIndex);
-                                case "java.lang.String" -> args.checkjstring(argIndex);
-                                case "java.lang.Boolean", "boolean" -> args.toboolean(argIndex);
-                                case "java.lang.Float", "float" -> (float) args.checkdouble(argIndex);
-                                case "java.lang.Integer", "int" -> args.checkint(argIndex);
-                                case "java.lang.Long", "long" -> args.checklong(argIndex);
-                                case "org.luaj.vm2.LuaTable" -> args.checktable(argIndex);
-                                case "org.luaj.vm2.LuaFunction" -> args.checkfunction(argIndex);
-                                case "org.luaj.vm2.LuaValue" -> args.arg(argIndex);
-                                case "java.lang.Object" -> luaToJava(args.arg(argIndex));
-                                default -> argumentTypes[i].getName().startsWith("[") ? luaVarargToJava(args, argIndex, argumentTypes[i]) : args.checkuserdata(argIndex, argumentTypes[i]);
-                            };
-                        } catch (LuaError err) {
-                            String expectedType = FiguraDocsManager.getNameFor(argumentTypes[i]);
-                            String actualType;
-                            if (args.arg(argIndex).type() == LuaValue.TUSERDATA)
-                                actualType = FiguraDocsManager.getNameFor(args.arg(argIndex).checkuserdata().getClass());
-                            else
-                                actualType = args.arg(argIndex).typename();
-                            throw new LuaError("Invalid argument " + argIndex + " to function " + method.getName() + ". Expected " + expectedType + ", but got " + actualType);
-                        }
-                    } else {
-                        actualArgs[i] = switch (argumentTypes[i].getName()) {
-                            case "double" -> 0D;
-                            case "int" -> 0;
-                            case "long" -> 0L;
-                            case "float" -> 0f;
-                            case "boolean" -> false;
-                            default -> null;
-                        };
-                    }
+    private VarArgFunction getWrapper(MethodInfo info) {
+        // methods that never return userdata do not depend on this runtime's metatables, so every runtime uses the same function
+        return info.shared != null ? info.shared : new MethodWrapper(info, this);
+    }
+
+    /**
+     * The whitelisted methods of a class and its whitelisted superclasses, split in metamethods and regular methods
+     */
+    private static class ClassInfo {
+        private final List<MethodInfo> metamethods;
+        private final List<MethodInfo> methods;
+        private final MethodInfo indexer;
+        private final LuaFunction toString;
+
+        private ClassInfo(Class<?> clazz) {
+            Map<String, MethodInfo> metamethods = new LinkedHashMap<>();
+            Map<String, MethodInfo> methods = new LinkedHashMap<>();
+
+            Class<?> currentClass = clazz;
+            while (currentClass.isAnnotationPresent(LuaWhitelist.class)) {
+                for (Method method : currentClass.getDeclaredMethods()) {
+                    if (!method.isAnnotationPresent(LuaWhitelist.class))
+                        continue;
+
+                    MethodInfo info = METHODS.computeIfAbsent(method, MethodInfo::new);
+                    if (info.name.startsWith("__")) // Only add the most recently declared metamethod, in the most specific subclass.
+                        metamethods.putIfAbsent(info.name, info);
+                    else // regular methods
+                        methods.put(info.name, info);
                 }
+                currentClass = currentClass.getSuperclass();
+            }
 
-                // Invoke the wrapped method
-                Object result;
-                try {
-                    result = method.invoke(caller, actualArgs);
-                } catch (IllegalAccessException | InvocationTargetException e) {
-                    throw e.getCause() instanceof LuaError l ? l : new LuaError(e.getCause());
+            this.indexer = metamethods.remove("__index");
+            this.metamethods = List.copyOf(metamethods.values());
+            this.methods = List.copyOf(methods.values());
+
+            LuaString name = LuaString.valueOf(clazz.getName());
+            this.toString = new OneArgFunction() {
+                @Override
+                public LuaValue call(LuaValue arg) {
+                    return name;
                 }
+            };
+        }
+    }
 
-                // Convert the return value
-                return result instanceof Varargs v ? v : javaToLua(result);
+    /**
+     * The reflected data of a method, used by the wrappers of every runtime
+     */
+    private static class MethodInfo {
+        private final String name;
+        private final boolean isStatic;
+        private final boolean skipSelf;
+        private final Class<?> clazz;
+        private final Class<?>[] argumentTypes;
+        private final boolean[] requiredNotNil;
+        private final ArgumentConverter[] converters;
+        private final Object[] defaults;
+        private final ReturnConverter returnConverter;
+        private final MethodHandle invoker;
+        private final VarArgFunction shared;
+
+        private MethodInfo(Method method) {
+            this.name = method.getName();
+            this.isStatic = Modifier.isStatic(method.getModifiers());
+            this.clazz = method.getDeclaringClass();
+            this.argumentTypes = method.getParameterTypes();
+            this.requiredNotNil = getRequiredNotNil(method);
+            this.skipSelf = isStatic && argumentTypes.length > 0 && !argumentTypes[0].isAssignableFrom(clazz);
+
+            this.converters = new ArgumentConverter[argumentTypes.length];
+            this.defaults = new Object[argumentTypes.length];
+            for (int i = 0; i < argumentTypes.length; i++) {
+                converters[i] = getArgumentConverter(argumentTypes[i]);
+                defaults[i] = getDefault(argumentTypes[i]);
             }
 
-            @Override
-            public String tojstring() {
-                return "function: " + method.getName();
+            Class<?> returnType = method.getReturnType();
+            this.returnConverter = getReturnConverter(returnType);
+            this.invoker = getInvoker(method);
+
+            boolean plain = returnType.isPrimitive() || PLAIN_TYPES.contains(returnType) || Varargs.class.isAssignableFrom(returnType);
+            this.shared = plain ? new MethodWrapper(this, null) : null;
+        }
+
+        private Varargs invoke(LuaTypeManager typeManager, Varargs args) {
+            Object caller = isStatic ? null : args.checkuserdata(1, clazz);
+            Object[] actualArgs = argumentTypes.length == 0 ? NO_ARGS : new Object[argumentTypes.length];
+
+            // dirty hack for QOL of ignoring the first argument if the method is static and the arg matches the class type
+            int offset = skipSelf && args.isuserdata(1) && clazz.isAssignableFrom(args.checkuserdata(1).getClass()) ? 1 : 0;
+
+            // Fill in actualArgs from args
+            int narg = args.narg();
+            for (int i = 0; i < argumentTypes.length; i++) {
+                int argIndex = i + (isStatic ? 1 : 2) + offset;
+                boolean nil = args.isnil(argIndex);
+                if (nil && requiredNotNil[i])
+                    throw new LuaError("bad argument: " + name + " " + argIndex + " do not allow nil values, expected " + FiguraDocsManager.getNameFor(argumentTypes[i]));
+                if (argIndex <= narg && !nil) {
+                    try {
+                        actualArgs[i] = converters[i].convert(args, argIndex);
+                    } catch (LuaError err) {
+                        String expectedType = FiguraDocsManager.getNameFor(argumentTypes[i]);
+                        String actualType;
+                        if (args.arg(argIndex).type() == LuaValue.TUSERDATA)
+                            actualType = FiguraDocsManager.getNameFor(args.arg(argIndex).checkuserdata().getClass());
+                        else
+                            actualType = args.arg(argIndex).typename();
+                        throw new LuaError("Invalid argument " + argIndex + " to function " + name + ". Expected " + expectedType + ", but got " + actualType);
+                    }
+                } else {
+                    actualArgs[i] = defaults[i];
+                }
             }
+
+            // Invoke the wrapped method
+            Object result;
+            try {
+                result = (Object) invoker.invokeExact(caller, actualArgs);
+            } catch (LuaError e) {
+                throw e;
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof LuaError l ? l : new LuaError(e.getCause());
+            } catch (Throwable e) {
+                throw new LuaError(e);
+            }
+
+            // Convert the return value
+            return returnConverter.convert(typeManager, result);
+        }
+    }
+
+    // -- converters -- //
+
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final MethodHandle METHOD_INVOKE;
+
+    static {
+        try {
+            METHOD_INVOKE = MethodHandles.lookup().findVirtual(Method.class, "invoke", MethodType.methodType(Object.class, Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ArgumentConverter {
+        Object convert(Varargs args, int index);
+    }
+
+    @FunctionalInterface
+    private interface ReturnConverter {
+        Varargs convert(LuaTypeManager typeManager, Object value);
+    }
+
+    /**
+     * @return a handle of the method with the type (Object caller, Object[] args) -> Object, for both static and instance methods
+     */
+    private static MethodHandle getInvoker(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+        } catch (IllegalAccessException e) {
+            // not accessible from here, so use reflection the same way as before, which reports the same errors when called
+            return METHOD_INVOKE.bindTo(method);
+        }
+
+        handle = handle.asType(handle.type().generic());
+        if (Modifier.isStatic(method.getModifiers()))
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        return handle.asSpreader(Object[].class, method.getParameterCount());
+    }
+
+    private static ArgumentConverter getArgumentConverter(Class<?> type) {
+        return switch (type.getName()) {
+            case "java.lang.Number", "java.lang.Double", "double" -> Varargs::checkdouble;
+            case "java.lang.String" -> Varargs::checkjstring;
+            case "java.lang.Boolean", "boolean" -> Varargs::toboolean;
+            case "java.lang.Float", "float" -> (args, i) -> (float) args.checkdouble(i);
+            case "java.lang.Integer", "int" -> Varargs::checkint;
+            case "java.lang.Long", "long" -> Varargs::checklong;
+            case "org.luaj.vm2.LuaTable" -> Varargs::checktable;
+            case "org.luaj.vm2.LuaFunction" -> Varargs::checkfunction;
+            case "org.luaj.vm2.LuaValue" -> Varargs::arg;
+            case "java.lang.Object" -> (args, i) -> luaToJava(args.arg(i));
+            default -> type.isArray() ? (args, i) -> luaVarargToJava(args, i, type) : (args, i) -> args.checkuserdata(i, type);
+        };
+    }
+
+    private static Object getDefault(Class<?> type) {
+        return switch (type.getName()) {
+            case "double" -> 0D;
+            case "int" -> 0;
+            case "long" -> 0L;
+            case "float" -> 0f;
+            case "boolean" -> false;
+            default -> null;
         };
     }
 
+    private static ReturnConverter getReturnConverter(Class<?> type) {
+        if (type == void.class)
+            return (typeManager, value) -> LuaValue.NIL;
+        if (Varargs.class.isAssignableFrom(type))
+            return (typeManager, value) -> value == null ? LuaValue.NIL : (Varargs) value;
+        if (type == double.class)
+            return (typeManager, value) -> LuaValue.valueOf((double) value);
+        if (type == float.class)
+            return (typeManager, value) -> LuaValue.valueOf((float) value);
+        if (type == int.class)
+            return (typeManager, value) -> LuaValue.valueOf((int) value);
+        if (type == boolean.class)
+            return (typeManager, value) -> LuaValue.valueOf((boolean) value);
+        if (type == String.class)
+            return (typeManager, value) -> value == null ? LuaValue.NIL : LuaValue.valueOf((String) value);
+        if (type.isPrimitive() || PLAIN_TYPES.contains(type))
+            return (typeManager, value) -> plainToLua(value);
+
+        return (typeManager, value) -> {
+            if (value instanceof Varargs v)
+                return v;
+            return typeManager == null ? plainToLua(value) : typeManager.javaToLua(value);
+        };
+    }
+
+    private static class MethodWrapper extends VarArgFunction {
+        private final MethodInfo info;
+        private final LuaTypeManager typeManager;
+
+        private MethodWrapper(MethodInfo info, LuaTypeManager typeManager) {
+            this.info = info;
+            this.typeManager = typeManager;
+        }
+
+        @Override
+        public Varargs invoke(Varargs args) {
+            return info.invoke(typeManager, args);
+        }
+
+        @Override
+        public String tojstring() {
+            return "function: " + info.name;
+        }
+    }
+
+    private static boolean[] getRequiredNotNil(Method method) {
+        Parameter[] params = method.getParameters();
+        boolean[] result = new boolean[params.length];
+        for (int i = 0; i < params.length; i++)
+            if (params[i].isAnnotationPresent(LuaNotNil.class))
+                result[i] = true;
+        return result;
+    }
+
     private LuaValue wrap(Object instance) {
         Class<?> clazz = instance.getClass();
         LuaTable metatable = metatables.get(clazz);
@@ -253,7 +414,7 @@ public class LuaTypeManager {
         return LuaValue.varargsOf(args);
     }
 
-    public Object luaVarargToJava(Varargs args, int argIndex, Class<?> argumentType) {
+    public static Object luaVarargToJava(Varargs args, int argIndex, Class<?> argumentType) {
         if (args.arg(argIndex).istable()) {
             return luaVarargToJava(args.checktable(argIndex).unpack(), 1, argumentType);
         } else {
@@ -279,7 +440,7 @@ public class LuaTypeManager {
 
     // we need to allow string being numbers here
     // however in places like pings and print we should keep strings as strings
-    public Object luaToJava(LuaValue val) {
+    public static Object luaToJava(LuaValue val) {
         if (val.istable())
             return val.checktable();
         else if (val.isnumber())
@@ -302,6 +463,23 @@ public class LuaTypeManager {
     }
 
     public Varargs javaToLua(Object val) {
+        LuaValue plain = plainToLua(val);
+        if (plain != null)
+            return plain;
+        else if (val instanceof Map<?,?> map)
+            return wrapMap(map);
+        else if (val instanceof Collection<?> collection)
+            return wrapCollection(collection);
+        else if (val.getClass().isArray())
+            return wrapArray(val);
+        else
+            return wrap(val);
+    }
+
+    /**
+     * @return the lua value of objects that do not need any metatable, or null for anything else
+     */
+    private static LuaValue plainToLua(Object val) {
         if (val == null)
             return LuaValue.NIL;
         else if (val instanceof LuaValue l)
@@ -324,15 +502,9 @@ public class LuaTypeManager {
             return LuaValue.valueOf(c);
         else if (val instanceof Short s)
             return LuaValue.valueOf(s);
-        else if (val instanceof Map<?,?> map)
-            return wrapMap(map);
-        else if (val instanceof Collection<?> collection)
-            return wrapCollection(collection);
-        else if (val.getClass().isArray())
-            return wrapArray(val);
         else if (val instanceof Component c)
             return LuaValue.valueOf(Component.Serializer.toJson(c));
         else
-            return wrap(val);
+            return null;
     }
 }
@@ -81,6 +81,9 @@ public class EventsAPI {
     @LuaWhitelist
     @LuaFieldDoc("events.resource_reload")
     public final LuaEvent RESOURCE_RELOAD = new LuaEvent();
+    @LuaWhitelist
+    @LuaFieldDoc("events.wake")
+    public final LuaEvent WAKE = new LuaEvent();
 
     private final Map<String, LuaEvent> events = new HashMap<>() {{
             put("ENTITY_INIT", ENTITY_INIT);
@@ -103,6 +106,7 @@ public class EventsAPI {
             put("ITEM_RENDER", ITEM_RENDER);
             put("ON_PLAY_SOUND", ON_PLAY_SOUND);
             put("RESOURCE_RELOAD", RESOURCE_RELOAD);
+            put("WAKE", WAKE);
     }};
 
     @LuaWhitelist
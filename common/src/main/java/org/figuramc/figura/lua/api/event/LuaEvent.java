@@ -11,12 +11,13 @@ import org.figuramc.figura.lua.docs.LuaMethodOverload;
 import org.figuramc.figura.lua.docs.LuaTypeDoc;
 import org.luaj.vm2.LuaError;
 import org.luaj.vm2.LuaFunction;
-import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
 import org.luaj.vm2.Varargs;
 
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
 
 @LuaWhitelist
 @LuaTypeDoc(
@@ -29,11 +30,12 @@ public class LuaEvent {
 
     private final boolean piped;
 
-    private final Deque<LuaFunction> functions = new ConcurrentLinkedDeque<>();
-    private final Deque<LuaFunction> queue = new ConcurrentLinkedDeque<>();
-    private final Deque<LuaFunction> removalQueue = new ConcurrentLinkedDeque<>();
+    private final List<LuaFunction> functions = new ArrayList<>();
     private final HashMultimap<String, LuaFunction> names = HashMultimap.create();
 
+    // the functions as of the last change, calls in progress keep using the one they started with
+    private volatile Handler[] snapshot = new Handler[0];
+
     public LuaEvent() {
         this(false);
     }
@@ -42,41 +44,57 @@ public class LuaEvent {
         this.piped = piped;
     }
 
-    // Add all waiting functions from the queues
-    protected void flushQueue() {
-        for (LuaFunction function : removalQueue)
-            functions.removeFirstOccurrence(function);
-        removalQueue.clear();
-
-        for (LuaFunction function : queue)
-            functions.addLast(function);
-        queue.clear();
+    // Takes a new snapshot of the registered functions, used from the next call on
+    private void update() {
+        Handler[] handlers = new Handler[functions.size()];
+        for (int i = 0; i < handlers.length; i++) {
+            LuaFunction function = functions.get(i);
+            handlers[i] = new Handler(function, function.name());
+        }
+        snapshot = handlers;
     }
 
     // Calls all the functions in the order they were registered, using the given args for all calls.
     // If piped, the result of one function is passed through to the next, repeatedly, eventually returning the result.
     public Varargs call(Varargs args) {
-        flushQueue();
+        Handler[] handlers = snapshot;
+        if (handlers.length == 0)
+            return piped ? args : LuaValue.NONE;
 
         if (piped)
-            return callPiped(args);
-
-        LuaTable result = new LuaTable();
-        for (LuaFunction function : functions) {
-            FiguraMod.pushProfiler(function.name());
-            Varargs val = function.invoke(args);
-            for (int i = 0; i < val.narg(); i++)
-                result.insert(0, val.arg(i + 1));
+            return callPiped(handlers, args);
+
+        // the returned values of every function, skipping nils, only collected when something is returned
+        LuaValue[] result = null;
+        int size = 0;
+        for (Handler handler : handlers) {
+            FiguraMod.pushProfiler(handler.name);
+            Varargs val = handler.function.invoke(args);
             FiguraMod.popProfiler();
+
+            int narg = val.narg();
+            for (int i = 1; i <= narg; i++) {
+                LuaValue value = val.arg(i);
+                if (value.isnil())
+                    continue;
+                if (result == null)
+                    result = new LuaValue[narg];
+                else if (size == result.length)
+                    result = Arrays.copyOf(result, size * 2);
+                result[size++] = value;
+            }
         }
-        return result.unpack();
+
+        if (result == null)
+            return LuaValue.NONE;
+        return LuaValue.varargsOf(size == result.length ? result : Arrays.copyOf(result, size));
     }
 
-    private Varargs callPiped(Varargs args) {
+    private Varargs callPiped(Handler[] handlers, Varargs args) {
         Varargs vars = args;
-        for (LuaFunction function : functions) {
-            FiguraMod.pushProfiler(function.name());
-            vars = function.invoke(vars);
+        for (Handler handler : handlers) {
+            FiguraMod.pushProfiler(handler.name);
+            vars = handler.function.invoke(vars);
             FiguraMod.popProfiler();
         }
         return vars;
@@ -96,22 +114,22 @@ public class LuaEvent {
             },
             value = "event.register"
     )
-    public LuaEvent register(@LuaNotNil LuaFunction func, String name) {
+    public synchronized LuaEvent register(@LuaNotNil LuaFunction func, String name) {
         if (__len() >= MAX_FUNCTIONS)
             throw new LuaError("Reached maximum limit of " + MAX_FUNCTIONS + " functions in one event!");
-        queue.addLast(func);
+        functions.add(func);
         if (name != null)
             names.put(name, func);
+        update();
         return this;
     }
 
     @LuaWhitelist
     @LuaMethodDoc("event.clear")
-    public void clear() {
+    public synchronized void clear() {
         functions.clear();
-        queue.clear();
-        removalQueue.clear();
         names.clear();
+        update();
     }
 
     @LuaWhitelist
@@ -128,21 +146,22 @@ public class LuaEvent {
             },
             value = "event.remove"
     )
-    public int remove(@LuaNotNil Object toRemove) {
-        flushQueue();
+    public synchronized int remove(@LuaNotNil Object toRemove) {
         if (toRemove instanceof LuaFunction func) {
-            removalQueue.add(func);
+            functions.remove(func);
             names.values().remove(func);
+            update();
             return 1;
         } else if (toRemove instanceof String name) {
             int removed = 0;
 
             Set<LuaFunction> set = names.removeAll(name);
             for (LuaFunction function : set) {
-                if (removalQueue.add(function))
-                    removed++;
+                functions.remove(function);
+                removed++;
             }
 
+            update();
             return removed;
         } else {
             throw new LuaError("Illegal argument to remove(): " + toRemove.getClass().getSimpleName());
@@ -157,7 +176,7 @@ public class LuaEvent {
             ),
             value = "event.get_registered_count"
     )
-    public int getRegisteredCount(@LuaNotNil String name) {
+    public synchronized int getRegisteredCount(@LuaNotNil String name) {
         return names.get(name).size();
     }
 
@@ -167,12 +186,14 @@ public class LuaEvent {
                     types = {int.class, LuaEvent.class}
             )
     })
-    public int __len() {
-        return functions.size() + queue.size();
+    public synchronized int __len() {
+        return functions.size();
     }
 
     @Override
     public String toString() {
         return "Event";
     }
+
+    private record Handler(LuaFunction function, String name) {}
 }
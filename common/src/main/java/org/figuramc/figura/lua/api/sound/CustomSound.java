@@ -0,0 +1,142 @@
+package org.figuramc.figura.lua.api.sound;
+
+import com.mojang.blaze3d.audio.OggAudioStream;
+import com.mojang.blaze3d.audio.SoundBuffer;
+import net.minecraft.Util;
+import net.minecraft.client.Minecraft;
+import org.figuramc.figura.FiguraMod;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A custom avatar sound, kept as its ogg file until it is played for the first time.
+ * Sounds are decoded in the background, and the decoded sounds of every avatar share a cache with a size limit,
+ * dropping the least recently played ones first
+ */
+public class CustomSound {
+
+    private static final long CACHE_SIZE = 64L * 1024L * 1024L;
+
+    // access ordered, the first entry is the least recently played
+    private static final LinkedHashMap<CustomSound, Decoded> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cacheSize;
+
+    private final byte[] data;
+    private CompletableFuture<SoundBuffer> buffer;
+    private int decodedSize;
+    private boolean closed;
+
+    public CustomSound(byte[] data) throws IOException {
+        // only check the header, the sound itself is decoded when needed
+        if (data.length < 4 || data[0] != 'O' || data[1] != 'g' || data[2] != 'g' || data[3] != 'S')
+            throw new IOException("Invalid ogg file");
+        this.data = data;
+    }
+
+    /**
+     * @return the size of the ogg file
+     */
+    public int size() {
+        return data.length;
+    }
+
+    /**
+     * @return the memory used by this sound, including its decoded data while it is cached
+     */
+    public long getMemory() {
+        synchronized (CACHE) {
+            return data.length + decodedSize;
+        }
+    }
+
+    /**
+     * @return the decoded sound, which is decoded off thread if it is not cached
+     */
+    public CompletableFuture<SoundBuffer> getBuffer() {
+        synchronized (CACHE) {
+            if (closed)
+                return CompletableFuture.failedFuture(new IllegalStateException("Sound was already closed"));
+            if (buffer == null)
+                buffer = CompletableFuture.supplyAsync(this::decode, Util.backgroundExecutor());
+            else
+                CACHE.get(this);
+            return buffer;
+        }
+    }
+
+    private SoundBuffer decode() {
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(data); OggAudioStream oggAudioStream = new OggAudioStream(inputStream)) {
+            ByteBuffer pcm = oggAudioStream.readAll();
+            int bytes = pcm.remaining();
+            SoundBuffer sound = new SoundBuffer(pcm, oggAudioStream.getFormat());
+
+            synchronized (CACHE) {
+                // the sound was removed while decoding, so nothing should play it
+                if (closed) {
+                    release(sound);
+                    throw new CompletionException(new IllegalStateException("Sound was closed while decoding"));
+                }
+
+                CACHE.put(this, new Decoded(sound, bytes));
+                cacheSize += bytes;
+                decodedSize = bytes;
+                trim();
+            }
+
+            return sound;
+        } catch (IOException e) {
+            FiguraMod.LOGGER.warn("Failed to decode custom sound", e);
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Frees the decoded sound, it should not be played anymore
+     */
+    public void close() {
+        synchronized (CACHE) {
+            closed = true;
+            buffer = null;
+            decodedSize = 0;
+
+            Decoded decoded = CACHE.remove(this);
+            if (decoded != null) {
+                cacheSize -= decoded.size;
+                decoded.sound.releaseAlBuffer();
+            }
+        }
+    }
+
+    private static void trim() {
+        Iterator<Map.Entry<CustomSound, Decoded>> iterator = CACHE.entrySet().iterator();
+        // always keep the most recent sound, even if it alone is over the limit
+        while (cacheSize > CACHE_SIZE && CACHE.size() > 1 && iterator.hasNext()) {
+            Map.Entry<CustomSound, Decoded> entry = iterator.next();
+            iterator.remove();
+            cacheSize -= entry.getValue().size;
+
+            CustomSound sound = entry.getKey();
+            SoundBuffer decoded = entry.getValue().sound;
+            sound.buffer = null;
+            sound.decodedSize = 0;
+            Minecraft.getInstance().execute(() -> {
+                // make sure nothing is still playing it before freeing it
+                SoundAPI.getSoundEngine().figura$stopSound(sound);
+                decoded.releaseAlBuffer();
+            });
+        }
+    }
+
+    private static void release(SoundBuffer sound) {
+        Minecraft.getInstance().execute(sound::releaseAlBuffer);
+    }
+
+    private record Decoded(SoundBuffer sound, int size) {}
+}
@@ -2,7 +2,6 @@ package org.figuramc.figura.lua.api.sound;
 
 import com.mojang.blaze3d.audio.Channel;
 import com.mojang.blaze3d.audio.Library;
-import com.mojang.blaze3d.audio.SoundBuffer;
 import net.minecraft.client.resources.sounds.Sound;
 import net.minecraft.client.sounds.ChannelAccess;
 import net.minecraft.client.sounds.SoundBufferLibrary;
@@ -28,7 +27,7 @@ public class LuaSound {
 
     private final Avatar owner;
     private final String id;
-    private final SoundBuffer buffer;
+    private final CustomSound customSound;
     private final Sound sound;
 
     private ChannelAccess.ChannelHandle handle;
@@ -42,18 +41,18 @@ public class LuaSound {
     private Component subtitleText;
     private String subtitle;
 
-    public LuaSound(SoundBuffer buffer, String id, Avatar owner) {
-        this(null, buffer, id, Component.literal(id), owner);
+    public LuaSound(CustomSound customSound, String id, Avatar owner) {
+        this(null, customSound, id, Component.literal(id), owner);
     }
 
     public LuaSound(Sound sound, String id, Component subtitle, Avatar owner) {
         this(sound, null, id, subtitle, owner);
     }
 
-    private LuaSound(Sound sound, SoundBuffer buffer, String id, Component subtitle, Avatar owner) {
+    private LuaSound(Sound sound, CustomSound customSound, String id, Component subtitle, Avatar owner) {
         this.owner = owner;
         this.id = id;
-        this.buffer = buffer;
+        this.customSound = customSound;
         this.sound = sound;
         this.subtitleText = subtitle;
         this.subtitle = subtitle == null ? null : subtitle.getString();
@@ -63,6 +62,10 @@ public class LuaSound {
         return handle;
     }
 
+    public CustomSound getCustomSound() {
+        return customSound;
+    }
+
     public Component getSubtitleText() {
         return subtitleText;
     }
@@ -91,12 +94,12 @@ public class LuaSound {
         if (handle != null) {
             handle.execute(Channel::unpause);
             this.playing = true;
-        } else if (buffer != null) {
+        } else if (customSound != null) {
             float vol = calculateVolume();
             if (vol <= 0)
                 return this;
 
-            this.handle = SoundAPI.getSoundEngine().figura$createHandle(owner.owner, id, Library.Pool.STATIC);
+            ChannelAccess.ChannelHandle handle = this.handle = SoundAPI.getSoundEngine().figura$createHandle(owner.owner, id, Library.Pool.STATIC);
             if (handle == null)
                 return this;
 
@@ -109,9 +112,13 @@ public class LuaSound {
                 channel.setLooping(loop);
                 channel.setSelfPosition(pos.asVec3());
                 channel.setRelative(false);
+            });
+
+            // custom sounds are only decoded once they are played
+            customSound.getBuffer().thenAccept(buffer -> handle.execute(channel -> {
                 channel.attachStaticBuffer(buffer);
                 channel.play();
-            });
+            }));
 
             this.playing = true;
         } else if (sound != null) {
@@ -11,6 +11,7 @@ import net.minecraft.sounds.SoundSource;
 import org.figuramc.figura.ducks.ChannelHandleAccessor;
 import org.figuramc.figura.ducks.SoundEngineAccessor;
 import org.figuramc.figura.ducks.SubtitleOverlayAccessor;
+import org.figuramc.figura.lua.api.sound.CustomSound;
 import org.figuramc.figura.lua.api.sound.FiguraSoundListener;
 import org.figuramc.figura.lua.api.sound.LuaSound;
 import org.jetbrains.annotations.Nullable;
@@ -123,6 +124,21 @@ public abstract class SoundEngineMixin implements SoundEngineAccessor {
         }
     }
 
+    @Override @Intrinsic
+    public void figura$stopSound(CustomSound customSound) {
+        if (!this.loaded)
+            return;
+
+        Iterator<LuaSound> iterator = figuraHandlers.iterator();
+        while (iterator.hasNext()) {
+            LuaSound sound = iterator.next();
+            if (sound.getCustomSound() == customSound) {
+                sound.stop();
+                iterator.remove();
+            }
+        }
+    }
+
     @Override @Intrinsic
     public void figura$stopAllSounds() {
         if (this.loaded) {
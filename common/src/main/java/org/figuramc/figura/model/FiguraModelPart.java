@@ -16,6 +16,7 @@ import org.figuramc.figura.math.vector.FiguraVec2;
 import org.figuramc.figura.math.vector.FiguraVec3;
 import org.figuramc.figura.model.rendering.ImmediateAvatarRenderer;
 import org.figuramc.figura.model.rendering.Vertex;
+import org.figuramc.figura.model.rendering.VertexArray;
 import org.figuramc.figura.model.rendering.texture.FiguraTexture;
 import org.figuramc.figura.model.rendering.texture.FiguraTextureSet;
 import org.figuramc.figura.model.rendering.texture.RenderTypes;
@@ -61,8 +62,12 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
     public int lastAnimationPriority = Integer.MIN_VALUE;
 
     public final FiguraMat4 savedPartToWorldMat = FiguraMat4.of().scale(1 / 16d, 1 / 16d, 1 / 16d);
+    // transform versions the saved matrix was calculated from
+    public long savedPartToWorldVersion = -1, savedViewToWorldVersion = -1;
 
-    public final Map<Integer, List<Vertex>> vertices;
+    public final Map<Integer, VertexArray> vertices;
+    public boolean dynamicVertices; // vertices were handed to a script, so they might change at any time
+    public boolean sharedVertices; // vertices belong to an entity avatar template, and must be copied before a script gets them
 
     @LuaWhitelist
     @LuaFieldDoc("model_part.pre_render")
@@ -74,7 +79,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
     @LuaFieldDoc("model_part.post_render")
     public LuaFunction postRender; // after children
 
-    public FiguraModelPart(Avatar owner, String name, PartCustomization customization, Map<Integer, List<Vertex>> vertices, List<FiguraModelPart> children) {
+    public FiguraModelPart(Avatar owner, String name, PartCustomization customization, Map<Integer, VertexArray> vertices, List<FiguraModelPart> children) {
         this.owner = owner;
         this.name = name;
         this.customization = customization;
@@ -87,19 +92,24 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             if (remainingComplexity[0] <= 0)
                 return false;
             remainingComplexity[0] -= facesByTexture.get(i);
-            avatarRenderer.pushFaces(facesByTexture.get(i) + Math.min(remainingComplexity[0], 0), remainingComplexity, textures.get(i), vertices.get(i));
+            avatarRenderer.pushFaces(facesByTexture.get(i) + Math.min(remainingComplexity[0], 0), remainingComplexity, textures.get(i), vertices.get(i), dynamicVertices);
         }
         return true;
     }
 
-    private Map<Integer, List<Vertex>> copyVertices() {
-        Map<Integer, List<Vertex>> map = new HashMap<>();
-        for (Map.Entry<Integer, List<Vertex>> entry : vertices.entrySet()) {
-            List<Vertex> list = new ArrayList<>();
-            for (Vertex vertex : entry.getValue())
-                list.add(vertex.copy());
-            map.put(entry.getKey(), list);
-        }
+    private void unshareVertices() {
+        if (!sharedVertices)
+            return;
+
+        for (Map.Entry<Integer, VertexArray> entry : vertices.entrySet())
+            entry.setValue(entry.getValue().copy());
+        sharedVertices = false;
+    }
+
+    private Map<Integer, VertexArray> copyVertices() {
+        Map<Integer, VertexArray> map = new HashMap<>();
+        for (Map.Entry<Integer, VertexArray> entry : vertices.entrySet())
+            map.put(entry.getKey(), entry.getValue().copy());
         return map;
     }
 
@@ -622,6 +632,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
     )
     public FiguraModelPart setVisible(Boolean bool) {
         this.customization.visible = bool;
+        this.customization.markDirty();
         return this;
     }
 
@@ -780,6 +791,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             }
             checkTexture(overrideType, x);
             this.customization.primaryTexture = type == null ? null : new TextureCustomization(overrideType, x);
+            this.customization.markDirty();
             return this;
         } catch (IllegalArgumentException ignored) {
             throw new LuaError("Invalid texture override type: " + type);
@@ -815,6 +827,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             }
             checkTexture(overrideType, x);
             this.customization.secondaryTexture = type == null ? null : new TextureCustomization(overrideType, x);
+            this.customization.markDirty();
             return this;
         } catch (IllegalArgumentException ignored) {
             throw new LuaError("Invalid texture override type: " + type);
@@ -895,6 +908,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
         this.customization.uvMatrix.reset();
         FiguraVec2 uv = LuaUtils.parseVec2("setUV", x, y);
         this.customization.uvMatrix.translate(uv.x % 1, uv.y % 1);
+        this.customization.markDirty();
         return this;
     }
 
@@ -937,6 +951,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
         FiguraVec2 uv = LuaUtils.parseVec2("setUVPixels", x, y);
         uv.divide(this.textureWidth, this.textureHeight);
         this.customization.uvMatrix.translate(uv.x, uv.y);
+        this.customization.markDirty();
 
         return this;
     }
@@ -969,6 +984,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             value = "model_part.set_uv_matrix")
     public FiguraModelPart setUVMatrix(@LuaNotNil FiguraMat3 matrix) {
         this.customization.uvMatrix.set(matrix);
+        this.customization.markDirty();
         return this;
     }
 
@@ -980,7 +996,8 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
     @LuaWhitelist
     @LuaMethodDoc("model_part.get_uv_matrix")
     public FiguraMat3 getUVMatrix() {
-        return this.customization.uvMatrix;
+        // the live matrix is returned, edits made to it later are picked up when the part is scanned
+        return this.customization.exposeUVMatrix();
     }
 
     @LuaWhitelist
@@ -1001,6 +1018,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
         FiguraVec3 vec = LuaUtils.parseOneArgVec("setColor", r, g, b, 1d);
         this.customization.color.set(vec);
         this.customization.color2.set(vec);
+        this.customization.markDirty();
         return this;
     }
 
@@ -1031,6 +1049,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             value = "model_part.set_primary_color")
     public FiguraModelPart setPrimaryColor(Object r, Double g, Double b) {
         this.customization.color.set(LuaUtils.parseOneArgVec("setPrimaryColor", r, g, b, 1d));
+        this.customization.markDirty();
         return this;
     }
 
@@ -1061,6 +1080,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             value = "model_part.set_secondary_color")
     public FiguraModelPart setSecondaryColor(Object r, Double g, Double b) {
         this.customization.color2.set(LuaUtils.parseOneArgVec("setSecondaryColor", r, g, b, 1d));
+        this.customization.markDirty();
         return this;
     }
 
@@ -1085,6 +1105,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             value = "model_part.set_opacity")
     public FiguraModelPart setOpacity(Float opacity) {
         this.customization.alpha = opacity;
+        this.customization.markDirty();
         return this;
     }
 
@@ -1114,6 +1135,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             aliases = "light",
             value = "model_part.set_light")
     public FiguraModelPart setLight(Object light, Double skyLight) {
+        this.customization.markDirty();
         if (light == null) {
             this.customization.light = null;
             return this;
@@ -1151,6 +1173,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
             aliases = "overlay",
             value = "model_part.set_overlay")
     public FiguraModelPart setOverlay(Object whiteOverlay, Double hurtOverlay) {
+        this.customization.markDirty();
         if (whiteOverlay == null) {
             this.customization.overlay = null;
             return this;
@@ -1190,6 +1213,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
 
         this.customization.vanillaVisible = null;
         this.customization.needsMatrixRecalculation = true;
+        this.customization.markDirty();
         return this;
     }
 
@@ -1341,16 +1365,21 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
                 break;
             }
         }
-        return vertices.get(index);
+        unshareVertices();
+        dynamicVertices = true;
+        VertexArray array = vertices.get(index);
+        return array == null ? null : array.asList();
     }
 
     @LuaWhitelist
     @LuaMethodDoc("model_part.get_all_vertices")
     public Map<String, List<Vertex>> getAllVertices() {
+        unshareVertices();
+        dynamicVertices = true;
         Map<String, List<Vertex>> map = new HashMap<>();
         for (int i = 0; i < textures.size(); i++) {
-            List<Vertex> list = vertices.get(i);
-            if (list != null) map.put(textures.get(i).name, list);
+            VertexArray array = vertices.get(i);
+            if (array != null) map.put(textures.get(i).name, array.asList());
         }
         return map;
     }
@@ -1372,6 +1401,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
         if(part.childCache.get(this.name) == null)
             part.childCache.put(this.name, this);
         this.parent = part;
+        this.customization.markDirty();
         return this;
     }
 
@@ -1395,6 +1425,7 @@ public class FiguraModelPart implements Comparable<FiguraModelPart> {
         if(this.childCache.get(part.name) == null)
             this.childCache.put(part.name, part);
         part.parent = this;
+        part.customization.markDirty();
         return this;
     }
 
@@ -13,11 +13,13 @@ import org.figuramc.figura.animation.Interpolation;
 import org.figuramc.figura.animation.Keyframe;
 import org.figuramc.figura.animation.TransformType;
 import org.figuramc.figura.avatar.Avatar;
+import org.figuramc.figura.avatar.AvatarTemplate;
 import org.figuramc.figura.config.Configs;
 import org.figuramc.figura.math.vector.FiguraVec2;
 import org.figuramc.figura.math.vector.FiguraVec3;
 import org.figuramc.figura.math.vector.FiguraVec4;
 import org.figuramc.figura.model.rendering.Vertex;
+import org.figuramc.figura.model.rendering.VertexArray;
 import org.figuramc.figura.model.rendering.texture.FiguraTextureSet;
 import org.figuramc.figura.model.rendering.texture.RenderTypes;
 import org.figuramc.figura.utils.MathUtils;
@@ -68,22 +70,36 @@ public class FiguraModelPartReader {
         while (textureSets.size() > facesByTexture.size())
             facesByTexture.add(0);
 
-        // Read vertex data
-        Map<Integer, List<Vertex>> vertices = new HashMap<>();
+        // smooth normals
+        if (partCompound.contains("smo"))
+            smoothNormals = partCompound.getBoolean("smo");
+
+        // Read vertex data, entity avatars reuse the vertices already read by others of the same type
+        AvatarTemplate.PartData shared = owner.template == null ? null : owner.template.getPart(partCompound);
+        Map<Integer, VertexArray> vertices = new HashMap<>();
         if (hasCubeData(partCompound)) {
-            readCuboid(facesByTexture, partCompound, vertices);
+            if (shared == null) readCuboid(facesByTexture, partCompound, vertices);
             customization.partType = PartCustomization.PartType.CUBE;
         } else if (hasMeshData(partCompound)) {
-            readMesh(facesByTexture, partCompound, vertices);
+            if (shared == null) readMesh(facesByTexture, partCompound, vertices);
             customization.partType = PartCustomization.PartType.MESH;
         }
 
-        // smooth normals
-        if (partCompound.contains("smo"))
-            smoothNormals = partCompound.getBoolean("smo");
+        if (shared != null) {
+            facesByTexture = new ArrayList<>(shared.facesByTexture());
+            vertices.putAll(shared.vertices());
+        } else {
+            for (VertexArray array : vertices.values()) {
+                array.trim();
+                array.getBounds();
+            }
 
-        if (Configs.FORCE_SMOOTH_AVATAR.value || (smoothNormals && !vertices.isEmpty()))
-            smoothfy(vertices);
+            if (Configs.FORCE_SMOOTH_AVATAR.value || (smoothNormals && !vertices.isEmpty()))
+                smoothfy(vertices);
+
+            if (owner.template != null)
+                owner.template.putPart(partCompound, facesByTexture, vertices);
+        }
 
         // Read children
         ArrayList<FiguraModelPart> children = new ArrayList<>(0);
@@ -99,6 +115,7 @@ public class FiguraModelPartReader {
             child.parent = result;
 
         result.facesByTexture = facesByTexture;
+        result.sharedVertices = owner.template != null;
         storeTextures(result, textureSets);
         if (partCompound.contains("pt")) {
             try {
@@ -347,7 +364,7 @@ public class FiguraModelPartReader {
     };
 
 
-    private static void readCuboid(List<Integer> facesByTexture, CompoundTag data, Map<Integer, List<Vertex>> vertices) {
+    private static void readCuboid(List<Integer> facesByTexture, CompoundTag data, Map<Integer, VertexArray> vertices) {
         // Read from and to
         FiguraVec3 from = FiguraVec3.of();
         readVec3(from, data, "f");
@@ -370,7 +387,7 @@ public class FiguraModelPartReader {
             readFace(data.getCompound("cube_data"), facesByTexture, direction, vertices, from, ftDiff);
     }
 
-    private static void readFace(CompoundTag faces, List<Integer> facesByTexture, String direction, Map<Integer, List<Vertex>> vertices, FiguraVec3 from, FiguraVec3 ftDiff) {
+    private static void readFace(CompoundTag faces, List<Integer> facesByTexture, String direction, Map<Integer, VertexArray> vertices, FiguraVec3 from, FiguraVec3 ftDiff) {
         if (faces.contains(direction)) {
             CompoundTag face = faces.getCompound(direction);
             short texId = face.getShort("tex");
@@ -387,19 +404,17 @@ public class FiguraModelPartReader {
 
                 FiguraVec2 normalizedUv = uvValues[(i + rotation) % 4];
 
-                List<Vertex> list = vertices.getOrDefault((int) texId, new ArrayList<>());
-                list.add(new Vertex(
+                vertices.computeIfAbsent((int) texId, id -> new VertexArray()).add(
                         (float) tempPos.x, (float) tempPos.y, (float) tempPos.z,
                         (float) Mth.lerp(normalizedUv.x, uv.x, uv.z),
                         (float) Mth.lerp(normalizedUv.y, uv.y, uv.w),
                         (float) normal.x, (float) normal.y, (float) normal.z
-                ));
-                vertices.put((int) texId, list);
+                );
             }
         }
     }
 
-    private static void readMesh(List<Integer> facesByTexture, CompoundTag data, Map<Integer, List<Vertex>> vertices) {
+    private static void readMesh(List<Integer> facesByTexture, CompoundTag data, Map<Integer, VertexArray> vertices) {
         CompoundTag meshData = data.getCompound("mesh_data");
         // mesh_data:
         // "vtx": List<Float>, xyz
@@ -469,24 +484,21 @@ public class FiguraModelPartReader {
             // p3 now contains the normal vector
 
             // Add the vertex data to the appropriate builder
+            VertexArray array = vertices.computeIfAbsent(texId, id -> new VertexArray());
             for (int j = 0; j < numVerts; j++) {
-                List<Vertex> list = vertices.getOrDefault(texId, new ArrayList<>());
-                list.add(new Vertex(
+                array.add(
                         posArr[3 * j], posArr[3 * j + 1], posArr[3 * j + 2],
                         uvArr[2 * j], uvArr[2 * j + 1],
                         (float) p3.x, (float) p3.y, (float) p3.z
-                ));
-                vertices.put(texId, list);
+                );
             }
             // Add a vertex if necessary
             if (numVerts == 3) {
-                List<Vertex> list = vertices.getOrDefault(texId, new ArrayList<>());
-                list.add(new Vertex(
+                array.add(
                         posArr[6], posArr[7], posArr[8],
                         uvArr[4], uvArr[5],
                         (float) p3.x, (float) p3.y, (float) p3.z
-                ));
-                vertices.put(texId, list);
+                );
             }
 
             // Increment the counters for the vertex and UV lists
@@ -496,11 +508,12 @@ public class FiguraModelPartReader {
     }
 
     // thanks to Scarlet Light#7611
-    private static void smoothfy(Map<Integer, List<Vertex>> verticesByTextuers) {
+    private static void smoothfy(Map<Integer, VertexArray> verticesByTextuers) {
         // separate vertices
         Map<String, List<Vertex>> verticesByPos = new HashMap<>();
-        for (List<Vertex> vertices : verticesByTextuers.values()) {
-            for (Vertex vertex : vertices) {
+        for (VertexArray array : verticesByTextuers.values()) {
+            for (int i = 0; i < array.size(); i++) {
+                Vertex vertex = new Vertex(array, i);
                 String id = String.valueOf(vertex.getPos());
                 List<Vertex> list = verticesByPos.computeIfAbsent(id, str -> new ArrayList<>(4));
                 list.add(vertex);
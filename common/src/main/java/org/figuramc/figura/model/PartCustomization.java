@@ -8,10 +8,30 @@ import org.figuramc.figura.math.vector.FiguraVec3;
 import org.figuramc.figura.model.rendering.texture.FiguraTextureSet;
 import org.figuramc.figura.model.rendering.texture.RenderTypes;
 
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PartCustomization {
 
+    // versions are taken from a global counter, so the newest change in a part tree is always its highest version
+    private static final AtomicLong VERSION_COUNTER = new AtomicLong();
+    private long version = VERSION_COUNTER.incrementAndGet();
+    // same as above, but only bumped when the matrices actually change
+    // on stack frames, it stands for the whole accumulated transform instead
+    private long transformVersion = VERSION_COUNTER.incrementAndGet();
+
+    // inputs of the last matrix recalculation, so it can be skipped when nothing really changed
+    private final double[] lastInputs = new double[34];
+    private boolean lastInputsValid = false;
+    private int inputIndex;
+    private boolean inputsChanged;
+
+    // accumulated matrices from the last time this was pushed, reused while neither this or the parent frame changes
+    private FiguraMat4 pushedPositionMatrix;
+    private FiguraMat3 pushedNormalMatrix;
+    private long pushedParentVersion = -1, pushedOwnVersion = -1, pushedVersion;
+
     // -- Matrix thingies --// 
     /**
      * Boolean exists because blockbench sucks and uses a different rotation
@@ -22,6 +42,7 @@ public class PartCustomization {
 
     public final FiguraMat4 positionMatrix = FiguraMat4.of();
     public final FiguraMat3 uvMatrix = FiguraMat3.of();
+    private FiguraMat3 uvMatrixSnapshot; // last seen uv matrix, once it was handed out to a script
     public final FiguraMat3 normalMatrix = FiguraMat3.of();
 
     public boolean needsMatrixRecalculation = false;
@@ -66,6 +87,14 @@ public class PartCustomization {
         if (!needsMatrixRecalculation)
             return;
 
+        needsMatrixRecalculation = false;
+
+        // vanilla offsets are set and reset every frame, so most of the time the inputs are the same as before
+        if (!updateInputs())
+            return;
+
+        transformVersion = VERSION_COUNTER.incrementAndGet();
+
         positionMatrix.reset();
 
         // Position the pivot point at 0, 0, 0, and translate the part
@@ -127,8 +156,33 @@ public class PartCustomization {
                     rotation.z + offsetRot.z + animRot.z
             );
         }
+    }
 
-        needsMatrixRecalculation = false;
+    private boolean updateInputs() {
+        inputIndex = 0;
+        inputsChanged = !lastInputsValid;
+
+        input(partType.ordinal());
+        input(position); input(rotation); input(scale); input(pivot);
+        input(offsetPivot); input(offsetPos); input(offsetRot); input(offsetScale);
+        input(animPos); input(animRot); input(animScale);
+
+        lastInputsValid = true;
+        return inputsChanged;
+    }
+
+    private void input(FiguraVec3 vec) {
+        input(vec.x);
+        input(vec.y);
+        input(vec.z);
+    }
+
+    private void input(double value) {
+        if (lastInputs[inputIndex] != value) {
+            lastInputs[inputIndex] = value;
+            inputsChanged = true;
+        }
+        inputIndex++;
     }
 
     public void setPos(FiguraVec3 pos) {
@@ -136,7 +190,7 @@ public class PartCustomization {
     }
     public void setPos(double x, double y, double z) {
         position.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getPos() {
         return position.copy();
@@ -147,7 +201,7 @@ public class PartCustomization {
     }
     public void setRot(double x, double y, double z) {
         rotation.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getRot() {
         return rotation.copy();
@@ -158,7 +212,7 @@ public class PartCustomization {
     }
     public void setScale(double x, double y, double z) {
         scale.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getScale() {
         return scale.copy();
@@ -169,7 +223,7 @@ public class PartCustomization {
     }
     public void setPivot(double x, double y, double z) {
         pivot.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getPivot() {
         return pivot.copy();
@@ -180,7 +234,7 @@ public class PartCustomization {
     }
     public void offsetPivot(double x, double y, double z) {
         offsetPivot.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getOffsetPivot() {
         return offsetPivot.copy();
@@ -191,7 +245,7 @@ public class PartCustomization {
     }
     public void offsetPos(double x, double y, double z) {
         offsetPos.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getOffsetPos() {
         return offsetPos.copy();
@@ -202,7 +256,7 @@ public class PartCustomization {
     }
     public void offsetRot(double x, double y, double z) {
         offsetRot.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getOffsetRot() {
         return offsetRot.copy();
@@ -213,7 +267,7 @@ public class PartCustomization {
     }
     public void offsetScale(double x, double y, double z) {
         offsetScale.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getOffsetScale() {
         return offsetScale.copy();
@@ -221,21 +275,21 @@ public class PartCustomization {
 
     public void setAnimPos(double x, double y, double z) {
         animPos.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getAnimPos() {
         return animPos.copy();
     }
     public void setAnimRot(double x, double y, double z) {
         animRot.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getAnimRot() {
         return animRot.copy();
     }
     public void setAnimScale(double x, double y, double z) {
         animScale.set(x, y, z);
-        needsMatrixRecalculation = true;
+        matrixChanged();
     }
     public FiguraVec3 getAnimScale() {
         return animScale.copy();
@@ -248,14 +302,72 @@ public class PartCustomization {
         temp.transpose();
         normalMatrix.set(temp);
         needsMatrixRecalculation = false;
+        lastInputsValid = false;
+        markTransformDirty();
+        markDirty();
     }
 
     public void setPositionMatrix(FiguraMat4 matrix) {
         positionMatrix.set(matrix);
+        lastInputsValid = false;
+        markTransformDirty();
+        markDirty();
     }
 
     public void setNormalMatrix(FiguraMat3 matrix) {
         normalMatrix.set(matrix);
+        lastInputsValid = false;
+        markTransformDirty();
+        markDirty();
+    }
+
+    private void matrixChanged() {
+        needsMatrixRecalculation = true;
+        markDirty();
+    }
+
+    /**
+     * Bumps the version of this customization.
+     * Anything that changes how this part renders should call it,
+     * so cached render data built from an older version gets discarded.
+     */
+    public void markDirty() {
+        version = VERSION_COUNTER.incrementAndGet();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the uv matrix itself, which scripts may edit in place without calling anything, so it is checked by {@link #checkUVMatrix()}
+     */
+    public FiguraMat3 exposeUVMatrix() {
+        if (uvMatrixSnapshot == null)
+            uvMatrixSnapshot = uvMatrix.copy();
+        return uvMatrix;
+    }
+
+    /**
+     * Bumps the version if the exposed uv matrix was edited since the last check
+     */
+    public void checkUVMatrix() {
+        if (uvMatrixSnapshot == null || uvMatrixSnapshot.equals(uvMatrix))
+            return;
+        uvMatrixSnapshot.set(uvMatrix);
+        markDirty();
+    }
+
+    /**
+     * Bumps the transform version of this customization.
+     * Must be called after modifying the matrices directly, so cached matrices derived from them are recalculated.
+     */
+    public void markTransformDirty() {
+        transformVersion = VERSION_COUNTER.incrementAndGet();
+    }
+
+    public long getTransformVersion() {
+        return transformVersion;
     }
 
     public FiguraMat4 getPositionMatrix() {
@@ -273,30 +385,39 @@ public class PartCustomization {
 
     public void setPrimaryRenderType(RenderTypes type) {
         primaryRenderType = type;
+        markDirty();
     }
     public RenderTypes getPrimaryRenderType() {
         return primaryRenderType;
     }
     public void setSecondaryRenderType(RenderTypes type) {
         secondaryRenderType = type;
+        markDirty();
     }
     public RenderTypes getSecondaryRenderType() {
         return secondaryRenderType;
     }
 
     public void copyTo(PartCustomization target) {
+        copyDataTo(target);
+        target.lastInputsValid = false;
+        target.markTransformDirty();
+        target.markDirty();
+    }
+
+    private void copyDataTo(PartCustomization target) {
         target.partType = partType;
         target.positionMatrix.set(positionMatrix);
         target.uvMatrix.set(uvMatrix);
         target.normalMatrix.set(normalMatrix);
-        target.setPos(position);
-        target.setRot(rotation);
-        target.setScale(scale);
-        target.setPivot(pivot);
-        target.offsetPivot(offsetPivot);
-        target.offsetPos(offsetPos);
-        target.offsetRot(offsetRot);
-        target.offsetScale(offsetScale);
+        target.position.set(position);
+        target.rotation.set(rotation);
+        target.scale.set(scale);
+        target.pivot.set(pivot);
+        target.offsetPivot.set(offsetPivot);
+        target.offsetPos.set(offsetPos);
+        target.offsetRot.set(offsetRot);
+        target.offsetScale.set(offsetScale);
         target.stackScale.set(stackScale);
         target.color.set(color);
         target.color2.set(color2);
@@ -306,8 +427,8 @@ public class PartCustomization {
         target.needsMatrixRecalculation = needsMatrixRecalculation;
         target.visible = visible;
         target.vanillaVisible = vanillaVisible;
-        target.setPrimaryRenderType(primaryRenderType);
-        target.setSecondaryRenderType(secondaryRenderType);
+        target.primaryRenderType = primaryRenderType;
+        target.secondaryRenderType = secondaryRenderType;
         target.primaryTexture = primaryTexture;
         target.secondaryTexture = secondaryTexture;
     }
@@ -315,13 +436,17 @@ public class PartCustomization {
     // Modify this object using the information contained in the other object
     public void modify(PartCustomization other) {
         positionMatrix.rightMultiply(other.positionMatrix);
-        uvMatrix.rightMultiply(other.uvMatrix);
         normalMatrix.rightMultiply(other.normalMatrix);
+        modifyProperties(other);
+    }
+
+    private void modifyProperties(PartCustomization other) {
+        uvMatrix.rightMultiply(other.uvMatrix);
 
         if (other.primaryRenderType != null)
-            setPrimaryRenderType(other.primaryRenderType);
+            primaryRenderType = other.primaryRenderType;
         if (other.secondaryRenderType != null)
-            setSecondaryRenderType(other.secondaryRenderType);
+            secondaryRenderType = other.secondaryRenderType;
 
         if (other.visible != null)
             visible = other.visible;
@@ -369,34 +494,65 @@ public class PartCustomization {
         GROUP
     }
 
-    public static class PartCustomizationStack {
+    private void pushOnto(PartCustomization parent, PartCustomization frame) {
+        parent.copyDataTo(frame);
 
-        private final Stack<PartCustomization> stack = new Stack<>() {{
-            add(new PartCustomization());
-        }};
+        if (pushedParentVersion == parent.transformVersion && pushedOwnVersion == transformVersion) {
+            // same transforms as last time
+            frame.positionMatrix.set(pushedPositionMatrix);
+            frame.normalMatrix.set(pushedNormalMatrix);
+            frame.modifyProperties(this);
+        } else {
+            frame.modify(this);
+
+            if (pushedPositionMatrix == null) {
+                pushedPositionMatrix = FiguraMat4.of();
+                pushedNormalMatrix = FiguraMat3.of();
+            }
+            pushedPositionMatrix.set(frame.positionMatrix);
+            pushedNormalMatrix.set(frame.normalMatrix);
+            pushedParentVersion = parent.transformVersion;
+            pushedOwnVersion = transformVersion;
+            pushedVersion = VERSION_COUNTER.incrementAndGet();
+        }
 
-        public void push(PartCustomization customization) {
-            // copy stack
-            PartCustomization newCustomization = new PartCustomization();
-            stack.peek().copyTo(newCustomization);
+        frame.transformVersion = pushedVersion;
+    }
+
+    /**
+     * The frames of this stack are pooled and reused in place,
+     * so a peeked customization is only valid until it gets popped
+     */
+    public static class PartCustomizationStack {
 
-            // modify
-            newCustomization.modify(customization);
+        private PartCustomization[] frames = {new PartCustomization()};
+        private int top = 0;
 
-            // add
-            stack.push(newCustomization);
+        public void push(PartCustomization customization) {
+            // grow the pool
+            if (++top == frames.length) {
+                frames = Arrays.copyOf(frames, top * 2);
+                for (int i = top; i < frames.length; i++)
+                    frames[i] = new PartCustomization();
+            }
+
+            // copy the previous frame and modify it
+            PartCustomization frame = frames[top];
+            customization.pushOnto(frames[top - 1], frame);
         }
 
         public void pop() {
-            stack.pop();
+            if (top == 0)
+                throw new EmptyStackException();
+            top--;
         }
 
         public PartCustomization peek() {
-            return stack.peek();
+            return frames[top];
         }
 
         public boolean isEmpty() {
-            return stack.size() == 1;
+            return top == 0;
         }
     }
 }
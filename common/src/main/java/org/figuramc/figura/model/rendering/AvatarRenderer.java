@@ -5,6 +5,7 @@ import com.mojang.datafixers.util.Pair;
 import net.minecraft.client.Camera;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.renderer.MultiBufferSource;
+import net.minecraft.client.renderer.culling.Frustum;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
@@ -31,8 +32,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Mainly exists as an abstract superclass for VAO-based and
- * immediate mode avatar renderers. (VAO-based don't exist yet)
+ * Mainly exists as an abstract superclass for the immediate mode
+ * and baked (retained mode) avatar renderers.
  */
 public abstract class AvatarRenderer {
 
@@ -41,7 +42,7 @@ public abstract class AvatarRenderer {
 
     protected final Map<ParentType, List<FiguraModelPart>> separatedParts = new ConcurrentHashMap<>();
 
-    protected boolean isRendering, dirty;
+    protected boolean isRendering, dirty, texturesChanged;
 
     // -- rendering data -- // 
 
@@ -65,6 +66,8 @@ public abstract class AvatarRenderer {
     public final HashMap<String, FiguraTexture> textures = new HashMap<>();
     public final HashMap<String, FiguraTexture> customTextures = new HashMap<>();
     protected static int shouldRenderPivots;
+    public static Frustum cullingFrustum;
+    public static MultiBufferSource deferredBufferSource; // level buffers, whose vertices can be built on worker threads
     public boolean allowMatrixUpdate = false;
     public boolean allowHiddenTransforms = true;
     public boolean allowSkullRendering = true;
@@ -83,15 +86,12 @@ public abstract class AvatarRenderer {
         CompoundTag nbt = avatar.nbt.getCompound("textures");
         CompoundTag src = nbt.getCompound("src");
 
-        // src files
+        // src files, entity avatars share them until a script changes them
         for (String key : src.getAllKeys()) {
-            byte[] bytes = src.getByteArray(key);
-            if (bytes.length > 0) {
-                textures.put(key, new FiguraTexture(avatar, key, bytes));
-            } else {
-                ListTag size = src.getList(key, Tag.TAG_INT);
-                textures.put(key, new FiguraTexture(avatar, key, size.getInt(0), size.getInt(1)));
-            }
+            if (avatar.template != null)
+                textures.put(key, new FiguraTexture(avatar, avatar.template.getTexture(avatar, key, src)));
+            else
+                textures.put(key, readTexture(avatar, key, src));
         }
 
         // data files
@@ -110,6 +110,15 @@ public abstract class AvatarRenderer {
         avatar.hasTexture = !texturesList.isEmpty();
     }
 
+    public static FiguraTexture readTexture(Avatar avatar, String key, CompoundTag src) {
+        byte[] bytes = src.getByteArray(key);
+        if (bytes.length > 0)
+            return new FiguraTexture(avatar, key, bytes);
+
+        ListTag size = src.getList(key, Tag.TAG_INT);
+        return new FiguraTexture(avatar, key, size.getInt(0), size.getInt(1));
+    }
+
     private String getTextureName(CompoundTag tag) {
         String s = tag.getString("d");
         if (!s.isEmpty()) return s;
@@ -146,6 +155,18 @@ public abstract class AvatarRenderer {
             texture.close();
     }
 
+    /**
+     * Frees data only needed while rendering, it is built again on the next render
+     */
+    public void releaseCaches() {}
+
+    /**
+     * A texture changed its location, so the render types cached with the old one are dropped before the next render
+     */
+    public void invalidateTextures() {
+        this.texturesChanged = true;
+    }
+
     public void invalidate() {
         this.dirty = true;
         if (!this.isRendering)
@@ -0,0 +1,279 @@
+package org.figuramc.figura.model.rendering;
+
+import org.figuramc.figura.FiguraMod;
+import org.figuramc.figura.avatar.Avatar;
+import org.figuramc.figura.math.matrix.FiguraMat4;
+import org.figuramc.figura.math.vector.FiguraVec3;
+import org.figuramc.figura.math.vector.FiguraVec4;
+import org.figuramc.figura.model.FiguraModelPart;
+import org.figuramc.figura.model.ParentType;
+import org.figuramc.figura.model.PartCustomization;
+import org.figuramc.figura.model.rendering.texture.FiguraTextureSet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Retained mode avatar renderer.
+ * Subtrees whose children can't move relative to their root are baked once into flat vertex lists,
+ * already transformed into the root part space, and replayed until any part inside of them changes.
+ * Dynamic parts (render functions, animations, vanilla parents, render tasks and script edited vertices)
+ * still go through the immediate mode path.
+ */
+public class BakedAvatarRenderer extends ImmediateAvatarRenderer {
+
+    private final Map<FiguraModelPart, BakedPart> bakedParts = new HashMap<>();
+    private final FiguraMat4 worldMatrix = FiguraMat4.of();
+    private final PartCustomization.PartCustomizationStack bakeStack = new PartCustomization.PartCustomizationStack();
+
+    // results of the last subtree scan
+    private long scanVersion;
+    private int scanCount;
+
+    public BakedAvatarRenderer(Avatar avatar) {
+        super(avatar);
+    }
+
+    @Override
+    protected void clean() {
+        super.clean();
+        bakedParts.clear();
+    }
+
+    @Override
+    public void releaseCaches() {
+        super.releaseCaches();
+        bakedParts.clear();
+    }
+
+    @Override
+    protected boolean renderRetained(FiguraModelPart part, int[] remainingComplexity) {
+        // pivot indicators and per part lighting needs to visit every part
+        if (part.children.isEmpty() || shouldRenderPivots > 0 || updateLight)
+            return false;
+
+        // the filter scheme must let plain children render as their parent does
+        if (currentFilterScheme.test(ParentType.None, true) != Boolean.TRUE)
+            return false;
+
+        // check if the children are still static
+        scanVersion = 0;
+        scanCount = 0;
+        if (part.dynamicVertices || !scanChildren(part)) {
+            bakedParts.remove(part);
+            return false;
+        }
+
+        // (re)bake
+        BakedPart baked = bakedParts.get(part);
+        if (baked == null || baked.version != scanVersion || baked.partCount != scanCount) {
+            FiguraMod.pushProfiler("bake");
+            baked = bake(part);
+            bakedParts.put(part, baked);
+            FiguraMod.popProfiler();
+        }
+
+        // offscreen subtrees are skipped without using any complexity
+        FiguraMod.pushProfiler("replay");
+        if (!cullParts || !isOffscreen(baked.getBounds())) {
+            // not enough complexity left, let the immediate path cut the subtree
+            if (baked.faceCount > remainingComplexity[0]) {
+                FiguraMod.popProfiler();
+                return false;
+            }
+
+            for (BakedBatch batch : baked.batches) {
+                remainingComplexity[0] -= batch.faceCount;
+                customizationStack.push(batch.renderState);
+                pushFaces(batch.faceCount, remainingComplexity, batch.textureSet, batch.vertices);
+                customizationStack.pop();
+            }
+        }
+
+        // part to world matrices of the baked children
+        PartCustomization peek = customizationStack.peek();
+        if (allowMatrixUpdate && (baked.worldVersion != peek.getTransformVersion() || baked.viewVersion != viewToWorldVersion)) {
+            FiguraMod.popPushProfiler("worldMatrices");
+            baked.worldVersion = peek.getTransformVersion();
+            baked.viewVersion = viewToWorldVersion;
+            for (BakedMatrix matrix : baked.matrices) {
+                worldMatrix.set(peek.positionMatrix);
+                worldMatrix.rightMultiply(matrix.relative);
+                worldMatrix.multiply(VIEW_TO_WORLD_MATRIX);
+                matrix.part.savedPartToWorldMat.set(worldMatrix);
+                // not calculated from the part frame, so recalculate it if the part falls back to immediate mode
+                matrix.part.savedPartToWorldVersion = -1;
+            }
+        }
+
+        FiguraMod.popProfiler();
+        return true;
+    }
+
+    private boolean scanChildren(FiguraModelPart part) {
+        for (FiguraModelPart child : part.children) {
+            if (!scan(child))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean scan(FiguraModelPart part) {
+        PartCustomization custom = part.customization;
+        custom.checkUVMatrix();
+        scanVersion = Math.max(scanVersion, custom.getVersion());
+        scanCount++;
+
+        // hidden parts are skipped entirely, so whatever is inside of them does not matter
+        if (custom.visible != null && !custom.visible)
+            return true;
+
+        if (part.parentType != ParentType.None || part.animated || part.dynamicVertices
+                || part.preRender != null || part.midRender != null || part.postRender != null
+                || !part.renderTasks.isEmpty())
+            return false;
+
+        return scanChildren(part);
+    }
+
+    // -- baking -- //
+
+    private BakedPart bake(FiguraModelPart root) {
+        BakedPart baked = new BakedPart(scanVersion, scanCount);
+
+        // the root is already on the render stack, so its vertices stay as they are
+        addVertices(baked, root, bakeStack.peek());
+
+        for (FiguraModelPart child : root.children)
+            bakePart(baked, child, bakeStack);
+
+        return baked;
+    }
+
+    private void bakePart(BakedPart baked, FiguraModelPart part, PartCustomization.PartCustomizationStack stack) {
+        PartCustomization custom = part.customization;
+        if (custom.visible != null && !custom.visible)
+            return;
+
+        // older bakes inside this subtree are replaced by this one
+        bakedParts.remove(part);
+
+        custom.recalculate();
+        stack.push(custom);
+        PartCustomization peek = stack.peek();
+
+        // relative matrix used to update the part to world matrix
+        FiguraMat4 relative = peek.getPositionMatrix();
+        relative.rightMultiply(FiguraMat4.of().translate(custom.getPivot()));
+        baked.matrices.add(new BakedMatrix(part, relative));
+
+        addVertices(baked, part, peek);
+
+        for (FiguraModelPart child : part.children)
+            bakePart(baked, child, stack);
+
+        stack.pop();
+    }
+
+    private static final FiguraVec4 pos = FiguraVec4.of();
+    private static final FiguraVec3 normal = FiguraVec3.of();
+    private static void addVertices(BakedPart baked, FiguraModelPart part, PartCustomization transform) {
+        for (int i = 0; i < part.facesByTexture.size(); i++) {
+            int faces = part.facesByTexture.get(i);
+            VertexArray vertices = part.vertices.get(i);
+            if (faces == 0 || vertices == null || vertices.isEmpty())
+                continue;
+
+            BakedBatch batch = baked.getBatch(part.textures.get(i), transform);
+            for (int j = 0; j < faces * 4; j++) {
+                int j3 = j * 3, j2 = j * 2;
+
+                pos.set(vertices.positions[j3], vertices.positions[j3 + 1], vertices.positions[j3 + 2], 1);
+                pos.transform(transform.positionMatrix);
+                normal.set(vertices.normals[j3], vertices.normals[j3 + 1], vertices.normals[j3 + 2]);
+                normal.transform(transform.normalMatrix);
+
+                batch.vertices.add(
+                        (float) pos.x, (float) pos.y, (float) pos.z,
+                        vertices.uvs[j2], vertices.uvs[j2 + 1],
+                        (float) normal.x, (float) normal.y, (float) normal.z
+                );
+            }
+
+            batch.faceCount += faces;
+            baked.faceCount += faces;
+        }
+    }
+
+    private static boolean sameRenderState(PartCustomization a, PartCustomization b) {
+        return a.getPrimaryRenderType() == b.getPrimaryRenderType()
+                && a.getSecondaryRenderType() == b.getSecondaryRenderType()
+                && a.primaryTexture == b.primaryTexture
+                && a.secondaryTexture == b.secondaryTexture
+                && Objects.equals(a.light, b.light)
+                && Objects.equals(a.overlay, b.overlay)
+                && Objects.equals(a.alpha, b.alpha)
+                && a.color.equals(b.color)
+                && a.color2.equals(b.color2)
+                && a.uvMatrix.equals(b.uvMatrix);
+    }
+
+    private static class BakedPart {
+        private final long version;
+        private final int partCount;
+        private final List<BakedBatch> batches = new ArrayList<>();
+        private final List<BakedMatrix> matrices = new ArrayList<>();
+        private int faceCount;
+        private long worldVersion = -1, viewVersion = -1;
+        private float[] bounds;
+
+        private BakedPart(long version, int partCount) {
+            this.version = version;
+            this.partCount = partCount;
+        }
+
+        private float[] getBounds() {
+            if (bounds == null) {
+                bounds = emptyBounds();
+                for (BakedBatch batch : batches)
+                    union(bounds, batch.vertices.getBounds());
+            }
+            return bounds;
+        }
+
+        private BakedBatch getBatch(FiguraTextureSet textureSet, PartCustomization transform) {
+            for (BakedBatch batch : batches) {
+                if (batch.textureSet == textureSet && sameRenderState(batch.renderState, transform))
+                    return batch;
+            }
+
+            // the render state is pushed on top of the root, so it only keeps the non matrix data
+            PartCustomization renderState = new PartCustomization();
+            transform.copyTo(renderState);
+            renderState.positionMatrix.reset();
+            renderState.normalMatrix.reset();
+            renderState.needsMatrixRecalculation = false;
+
+            BakedBatch batch = new BakedBatch(textureSet, renderState);
+            batches.add(batch);
+            return batch;
+        }
+    }
+
+    private static class BakedBatch {
+        private final FiguraTextureSet textureSet;
+        private final PartCustomization renderState;
+        private final VertexArray vertices = new VertexArray();
+        private int faceCount;
+
+        private BakedBatch(FiguraTextureSet textureSet, PartCustomization renderState) {
+            this.textureSet = textureSet;
+            this.renderState = renderState;
+        }
+    }
+
+    private record BakedMatrix(FiguraModelPart part, FiguraMat4 relative) {}
+}
@@ -10,7 +10,6 @@ import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.RenderType;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.LightLayer;
 import org.figuramc.figura.FiguraMod;
 import org.figuramc.figura.avatar.Avatar;
 import org.figuramc.figura.config.Configs;
@@ -18,7 +17,7 @@ import org.figuramc.figura.lua.api.ClientAPI;
 import org.figuramc.figura.math.matrix.FiguraMat3;
 import org.figuramc.figura.math.matrix.FiguraMat4;
 import org.figuramc.figura.math.vector.FiguraVec3;
-import org.figuramc.figura.math.vector.FiguraVec4;
+import org.figuramc.figura.mixin.render.FrustumAccessor;
 import org.figuramc.figura.model.*;
 import org.figuramc.figura.model.rendering.texture.FiguraTexture;
 import org.figuramc.figura.model.rendering.texture.FiguraTextureSet;
@@ -29,12 +28,28 @@ import org.figuramc.figura.utils.ui.UIHelper;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 
 public class ImmediateAvatarRenderer extends AvatarRenderer {
 
+    protected boolean cullParts;
+    protected boolean deferVertices;
+    // resolved render types and textures, per texture set
+    private static final int RENDER_STATE_CACHE_SIZE = 8;
+    private final Map<FiguraTextureSet, VertexData[]> renderStateCache = new HashMap<>();
     protected final PartCustomization.PartCustomizationStack customizationStack = new PartCustomization.PartCustomizationStack();
-
+    private final PartCustomization rootCustomization = new PartCustomization();
+    private final FiguraMat4 rootPositionCopy = FiguraMat4.of();
+    private final FiguraMat3 rootNormalCopy = FiguraMat3.of();
+    private static final TextureCustomization ROOT_PRIMARY_TEXTURE = new TextureCustomization(FiguraTextureSet.OverrideType.PRIMARY, null);
+    private static final TextureCustomization ROOT_SECONDARY_TEXTURE = new TextureCustomization(FiguraTextureSet.OverrideType.SECONDARY, null);
+
+    private static final FiguraMat4 PIVOT_TRANSLATION = FiguraMat4.of();
+    private static final FiguraMat4 CULL_MATRIX = FiguraMat4.of();
+    private static final float[] PART_BOUNDS = new float[6];
+    protected static long viewToWorldVersion;
     public static final FiguraMat4 VIEW_TO_WORLD_MATRIX = FiguraMat4.of();
     private static final PartCustomization pivotOffsetter = new PartCustomization();
     protected static final VertexBuffer VERTEX_BUFFER = new VertexBuffer();
@@ -48,6 +63,11 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         sortParts();
     }
 
+    @Override
+    public void releaseCaches() {
+        renderStateCache.clear();
+    }
+
     public void checkEmpty() {
         if (!customizationStack.isEmpty())
             throw new IllegalStateException("Customization stack not empty!");
@@ -75,7 +95,7 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         customizationStack.push(customization);
 
         // world matrices
-        VIEW_TO_WORLD_MATRIX.set(AvatarRenderer.worldToViewMatrix().invert());
+        updateViewToWorldMatrix();
 
         // calculate each part matrices
         calculatePartMatrices(root);
@@ -91,6 +111,12 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         // flag rendering state
         this.isRendering = true;
 
+        // cached render types may point to textures that are no longer used
+        if (texturesChanged) {
+            texturesChanged = false;
+            releaseCaches();
+        }
+
         // iris fix
         int irisConfig = UIHelper.paperdoll || !ClientAPI.hasShaderPackMod() ? 0 : Configs.IRIS_COMPATIBILITY_FIX.value;
         doIrisEmissiveFix = (irisConfig >= 2 && ClientAPI.hasShaderPack()) || (avatar.renderMode != EntityRenderMode.RENDER && avatar.renderMode != EntityRenderMode.WORLD);
@@ -111,7 +137,16 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
 
         // world matrices
         if (allowMatrixUpdate)
-            VIEW_TO_WORLD_MATRIX.set(AvatarRenderer.worldToViewMatrix().invert());
+            updateViewToWorldMatrix();
+
+        // frustum culling, only for avatars in the world
+        // shaders are skipped since their shadow pass does not use the camera frustum
+        EntityRenderMode mode = avatar.renderMode;
+        cullParts = cullingFrustum != null && allowMatrixUpdate && !UIHelper.paperdoll
+                && (mode == EntityRenderMode.RENDER || mode == EntityRenderMode.WORLD) && !ClientAPI.hasShaderPack();
+
+        // vertices drawn to the level buffers are built later, together with every other avatar
+        deferVertices = Configs.PARALLEL_VERTICES.value && bufferSource != null && bufferSource == deferredBufferSource;
 
         // complexity
         int prev = avatar.complexity.remaining;
@@ -158,11 +193,16 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
 
             // push vertices to vertex consumer
             FiguraMod.pushProfiler("draw");
-            FiguraMod.pushProfiler("primary");
-            VERTEX_BUFFER.consume(true, bufferSource);
-            FiguraMod.popPushProfiler("secondary");
-            VERTEX_BUFFER.consume(false, bufferSource);
-            FiguraMod.popProfiler(2);
+            if (deferVertices) {
+                VERTEX_BUFFER.defer(bufferSource);
+                FiguraMod.popProfiler();
+            } else {
+                FiguraMod.pushProfiler("primary");
+                VERTEX_BUFFER.consume(true, bufferSource);
+                FiguraMod.popPushProfiler("secondary");
+                VERTEX_BUFFER.consume(false, bufferSource);
+                FiguraMod.popProfiler(2);
+            }
 
             // finish rendering
             checkEmpty();
@@ -176,7 +216,12 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
     }
 
     protected PartCustomization setupRootCustomization(double vertOffset) {
-        PartCustomization customization = new PartCustomization();
+        // reused on every render, the stack copies it when pushed
+        PartCustomization customization = rootCustomization;
+        rootPositionCopy.set(customization.positionMatrix);
+        rootNormalCopy.set(customization.normalMatrix);
+        customization.positionMatrix.reset();
+        customization.normalMatrix.reset();
 
         customization.setPrimaryRenderType(RenderTypes.TRANSLUCENT);
         customization.setSecondaryRenderType(RenderTypes.EMISSIVE);
@@ -190,12 +235,16 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         customization.positionMatrix.multiply(posMat);
         customization.normalMatrix.multiply(normalMat);
 
+        // only invalidate the cached matrices if the avatar actually moved
+        if (!rootPositionCopy.equals(customization.positionMatrix) || !rootNormalCopy.equals(customization.normalMatrix))
+            customization.markTransformDirty();
+
         customization.light = light;
         customization.alpha = alpha;
         customization.overlay = overlay;
 
-        customization.primaryTexture = new TextureCustomization(FiguraTextureSet.OverrideType.PRIMARY, null);
-        customization.secondaryTexture = new TextureCustomization(FiguraTextureSet.OverrideType.SECONDARY, null);
+        customization.primaryTexture = ROOT_PRIMARY_TEXTURE;
+        customization.secondaryTexture = ROOT_SECONDARY_TEXTURE;
 
         return customization;
     }
@@ -209,8 +258,12 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         FiguraMod.pushProfiler("predicate");
         Boolean thisPassedPredicate = currentFilterScheme.test(part.parentType, prevPredicate);
         if (thisPassedPredicate == null || (custom.visible != null && !custom.visible)) {
-            if (part.parentType.isRenderLayer)
-                part.savedCustomization = customizationStack.peek();
+            if (part.parentType.isRenderLayer) {
+                // stack frames are reused, so save a copy
+                PartCustomization saved = new PartCustomization();
+                customizationStack.peek().copyTo(saved);
+                part.savedCustomization = saved;
+            }
             FiguraMod.popProfiler(2);
             return true;
         }
@@ -252,6 +305,7 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
             normalCopy = custom.normalMatrix.copy();
             custom.positionMatrix.reset();
             custom.normalMatrix.reset();
+            custom.markTransformDirty();
         }
 
         // push stack
@@ -263,15 +317,14 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
             FiguraMod.popPushProfiler("restoreMatrices");
             custom.positionMatrix.set(positionCopy);
             custom.normalMatrix.set(normalCopy);
+            custom.markTransformDirty();
         }
 
         if (thisPassedPredicate) {
             // recalculate world matrices
             FiguraMod.popPushProfiler("worldMatrices");
-            if (allowMatrixUpdate) {
-                FiguraMat4 mat = partToWorldMatrices(custom);
-                part.savedPartToWorldMat.set(mat);
-            }
+            if (allowMatrixUpdate)
+                updatePartToWorldMatrix(part);
 
             // recalculate light
             FiguraMod.popPushProfiler("calculateLight");
@@ -279,10 +332,8 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
             if (custom.light != null)
                 updateLight = false;
             else if (updateLight && (l = Minecraft.getInstance().level) != null) {
-                FiguraVec3 pos = part.savedPartToWorldMat.apply(0d, 0d, 0d);
-                int block = l.getBrightness(LightLayer.BLOCK, pos.asBlockPos());
-                int sky = l.getBrightness(LightLayer.SKY, pos.asBlockPos());
-                customizationStack.peek().light = LightTexture.pack(block, sky);
+                FiguraMat4 mat = part.savedPartToWorldMat;
+                customizationStack.peek().light = LightCache.getLight(l, mat.v14, mat.v24, mat.v34);
             }
         }
 
@@ -294,7 +345,9 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
 
         // render this
         FiguraMod.popPushProfiler("pushVertices");
-        boolean breakRender = thisPassedPredicate && !part.pushVerticesImmediate(this, remainingComplexity);
+        boolean retained = thisPassedPredicate && renderRetained(part, remainingComplexity);
+        boolean culled = !retained && thisPassedPredicate && cullParts && isOffscreen(part);
+        boolean breakRender = !retained && !culled && thisPassedPredicate && !part.pushVerticesImmediate(this, remainingComplexity);
 
         // render extras
         FiguraMod.popPushProfiler("extras");
@@ -353,10 +406,12 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
 
         // render children
         FiguraMod.popPushProfiler("children");
-        for (FiguraModelPart child : List.copyOf(part.children)) {
-            if (!renderPart(child, remainingComplexity, thisPassedPredicate)) {
-                breakRender = true;
-                break;
+        if (!retained) {
+            for (FiguraModelPart child : List.copyOf(part.children)) {
+                if (!renderPart(child, remainingComplexity, thisPassedPredicate)) {
+                    breakRender = true;
+                    break;
+                }
             }
         }
 
@@ -377,6 +432,15 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         return !breakRender;
     }
 
+    /**
+     * Hook for retained mode renderers, called after the part customization is on the stack.
+     * @return true if the vertices of this part and all of its children were already pushed,
+     * in which case the children are not visited
+     */
+    protected boolean renderRetained(FiguraModelPart part, int[] remainingComplexity) {
+        return false;
+    }
+
     protected void renderPivot(FiguraModelPart part, PartCustomization customization) {
         boolean group = part.customization.partType == PartCustomization.PartType.GROUP;
         FiguraVec3 color = group ? ColorUtils.Colors.BLUE.vec : ColorUtils.Colors.AWESOME_BLUE.vec;
@@ -398,16 +462,101 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         queue.add(new Pair<>(currentPosMat, currentNormalMat)); // These are COPIES, so ok to add
     }
 
-    protected FiguraMat4 partToWorldMatrices(PartCustomization cust) {
-        FiguraMat4 customizePeek = customizationStack.peek().positionMatrix.copy();
-        customizePeek.multiply(VIEW_TO_WORLD_MATRIX);
-        FiguraVec3 piv = cust.getPivot();
+    /**
+     * Checks the vertices of this part only, the children might still be on screen
+     */
+    protected boolean isOffscreen(FiguraModelPart part) {
+        float[] bounds = emptyBounds(PART_BOUNDS);
+        boolean empty = true;
+        for (int i = 0; i < part.facesByTexture.size(); i++) {
+            VertexArray vertices = part.vertices.get(i);
+            if (part.facesByTexture.get(i) == 0 || vertices == null || vertices.isEmpty())
+                continue;
+            union(bounds, vertices.getBounds());
+            empty = false;
+        }
+        return !empty && isOffscreen(bounds);
+    }
+
+    /**
+     * @param bounds a box in the space of the part on top of the stack
+     * @return true if the box, in world space, is entirely outside the camera frustum
+     */
+    protected boolean isOffscreen(float[] bounds) {
+        FiguraMat4 mat = CULL_MATRIX;
+        mat.set(customizationStack.peek().positionMatrix);
+        mat.multiply(VIEW_TO_WORLD_MATRIX);
+
+        // transform all corners and take the box around them
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 8; i++) {
+            double x = bounds[(i & 1) == 0 ? 0 : 3];
+            double y = bounds[(i & 2) == 0 ? 1 : 4];
+            double z = bounds[(i & 4) == 0 ? 2 : 5];
+
+            double wx = mat.v11 * x + mat.v12 * y + mat.v13 * z + mat.v14;
+            double wy = mat.v21 * x + mat.v22 * y + mat.v23 * z + mat.v24;
+            double wz = mat.v31 * x + mat.v32 * y + mat.v33 * z + mat.v34;
+
+            minX = Math.min(minX, wx); maxX = Math.max(maxX, wx);
+            minY = Math.min(minY, wy); maxY = Math.max(maxY, wy);
+            minZ = Math.min(minZ, wz); maxZ = Math.max(maxZ, wz);
+        }
+
+        // same test as Frustum.isVisible, without creating a box for every part
+        return !((FrustumAccessor) cullingFrustum).figura$cubeInFrustum(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    protected static float[] emptyBounds() {
+        return emptyBounds(new float[6]);
+    }
+
+    protected static float[] emptyBounds(float[] bounds) {
+        bounds[0] = bounds[1] = bounds[2] = Float.POSITIVE_INFINITY;
+        bounds[3] = bounds[4] = bounds[5] = Float.NEGATIVE_INFINITY;
+        return bounds;
+    }
+
+    protected static void union(float[] bounds, float[] other) {
+        for (int i = 0; i < 3; i++) {
+            bounds[i] = Math.min(bounds[i], other[i]);
+            bounds[i + 3] = Math.max(bounds[i + 3], other[i + 3]);
+        }
+    }
+
+    /**
+     * Updates the view to world matrix, bumping its version only when the camera actually moved
+     */
+    protected static void updateViewToWorldMatrix() {
+        FiguraMat4 mat = AvatarRenderer.worldToViewMatrix().invert();
+        if (!VIEW_TO_WORLD_MATRIX.equals(mat)) {
+            VIEW_TO_WORLD_MATRIX.set(mat);
+            viewToWorldVersion++;
+        }
+    }
 
-        FiguraMat4 translation = FiguraMat4.of();
-        translation.translate(piv);
-        customizePeek.rightMultiply(translation);
+    /**
+     * Updates the part to world matrix of the part on top of the stack,
+     * skipping it when neither the accumulated transforms or the view changed since the last update
+     */
+    protected void updatePartToWorldMatrix(FiguraModelPart part) {
+        PartCustomization peek = customizationStack.peek();
+        long version = peek.getTransformVersion();
+        if (part.savedPartToWorldVersion == version && part.savedViewToWorldVersion == viewToWorldVersion)
+            return;
+
+        part.savedPartToWorldVersion = version;
+        part.savedViewToWorldVersion = viewToWorldVersion;
 
-        return customizePeek;
+        FiguraMat4 mat = part.savedPartToWorldMat;
+        mat.set(peek.positionMatrix);
+        mat.multiply(VIEW_TO_WORLD_MATRIX);
+
+        FiguraVec3 piv = part.customization.getPivot();
+        PIVOT_TRANSLATION.reset();
+        PIVOT_TRANSLATION.translate(piv);
+        mat.rightMultiply(PIVOT_TRANSLATION);
     }
 
     protected void calculatePartMatrices(FiguraModelPart part) {
@@ -440,8 +589,7 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         if (thisPassedPredicate) {
             // part to world matrices
             FiguraMod.popPushProfiler("worldMatrices");
-            FiguraMat4 mat = partToWorldMatrices(custom);
-            part.savedPartToWorldMat.set(mat);
+            updatePartToWorldMatrix(part);
         }
 
         // render children
@@ -457,7 +605,14 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         FiguraMod.popProfiler(2);
     }
 
-    public void pushFaces(int faceCount, int[] remainingComplexity, FiguraTextureSet textureSet, List<Vertex> vertices) {
+    public void pushFaces(int faceCount, int[] remainingComplexity, FiguraTextureSet textureSet, VertexArray vertices) {
+        pushFaces(faceCount, remainingComplexity, textureSet, vertices, false);
+    }
+
+    /**
+     * @param dynamic if the vertices can be changed by a script before the end of the frame
+     */
+    public void pushFaces(int faceCount, int[] remainingComplexity, FiguraTextureSet textureSet, VertexArray vertices, boolean dynamic) {
         // Handle cases that we can quickly
         if (faceCount == 0 || vertices.isEmpty())
             return;
@@ -473,15 +628,46 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         }
 
         if (primary.renderType != null)
-            pushToBuffer(faceCount, primary, customization, textureSet, vertices);
+            pushToBuffer(faceCount, primary, customization, textureSet, vertices, dynamic);
         if (secondary.renderType != null)
-            pushToBuffer(faceCount, secondary, customization, textureSet, vertices);
+            pushToBuffer(faceCount, secondary, customization, textureSet, vertices, dynamic);
     }
 
     private VertexData getTexture(PartCustomization customization, FiguraTextureSet textureSet, boolean primary) {
         RenderTypes types = primary ? customization.getPrimaryRenderType() : customization.getSecondaryRenderType();
         TextureCustomization texture = primary ? customization.primaryTexture : customization.secondaryTexture;
+        int flags = (translucent ? 1 : 0) | (glowing ? 2 : 0) | (doIrisEmissiveFix ? 4 : 0) | (offsetRenderLayers ? 8 : 0);
+
+        // player textures can change at any time, so those are always resolved again
+        FiguraTextureSet.OverrideType override = texture == null ? null : texture.getOverrideType();
+        if (override == FiguraTextureSet.OverrideType.SKIN || override == FiguraTextureSet.OverrideType.CAPE || override == FiguraTextureSet.OverrideType.ELYTRA)
+            return resolveTexture(types, texture, textureSet, primary, flags);
+
+        // most recently used first
+        VertexData[] cache = renderStateCache.computeIfAbsent(textureSet, set -> new VertexData[RENDER_STATE_CACHE_SIZE]);
+        for (int i = 0; i < cache.length && cache[i] != null; i++) {
+            VertexData data = cache[i];
+            if (data.types == types && data.texture == texture && data.primary == primary && data.flags == flags) {
+                if (i > 0) {
+                    System.arraycopy(cache, 0, cache, 1, i);
+                    cache[0] = data;
+                }
+                return data;
+            }
+        }
+
+        VertexData ret = resolveTexture(types, texture, textureSet, primary, flags);
+        System.arraycopy(cache, 0, cache, 1, cache.length - 1);
+        cache[0] = ret;
+        return ret;
+    }
+
+    private VertexData resolveTexture(RenderTypes types, TextureCustomization texture, FiguraTextureSet textureSet, boolean primary, int flags) {
         VertexData ret = new VertexData();
+        ret.types = types;
+        ret.texture = texture;
+        ret.flags = flags;
+        ret.primary = primary;
 
         if (types == RenderTypes.NONE)
             return ret;
@@ -489,12 +675,6 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         // get texture
         ResourceLocation id = textureSet.getOverrideTexture(avatar.owner, texture);
 
-        // color
-        ret.color = primary ? customization.color : customization.color2;
-
-        // primary
-        ret.primary = primary;
-
         // get render type
         if (id != null) {
             if (translucent) {
@@ -524,70 +704,316 @@ public class ImmediateAvatarRenderer extends AvatarRenderer {
         return ret;
     }
 
-    private static final FiguraVec4 pos = FiguraVec4.of();
-    private static final FiguraVec3 normal = FiguraVec3.of();
-    private static final FiguraVec3 uv = FiguraVec3.of(0, 0, 1);
-    private void pushToBuffer(int faceCount, VertexData vertexData, PartCustomization customization, FiguraTextureSet textureSet, List<Vertex> vertices) {
+    private void pushToBuffer(int faceCount, VertexData vertexData, PartCustomization customization, FiguraTextureSet textureSet, VertexArray vertices, boolean dynamic) {
         int vertCount = faceCount * 4;
 
-        FiguraVec3 uvFixer = FiguraVec3.of();
-        uvFixer.set(textureSet.getWidth(), textureSet.getHeight(), 1); // Dividing by this makes uv 0 to 1
-
         int overlay = customization.overlay;
         int light = vertexData.fullBright ? LightTexture.FULL_BRIGHT : customization.light;
+        FiguraVec3 color = vertexData.primary ? customization.color : customization.color2;
+        float r = (float) color.x, g = (float) color.y, b = (float) color.z;
+
+        // transform straight into the staging buffer
+        StagingBuffer buffer = VERTEX_BUFFER.getBufferFor(vertexData.renderType, vertexData.primary);
+        int offset = buffer.reserve(vertCount);
+        float[] t = createTransform(customization, textureSet);
+        if (deferVertices) {
+            // the space is already reserved, so the job only needs its own copy of the inputs
+            VERTEX_BUFFER.addJob(new VertexJob(dynamic ? vertices.copy() : vertices, vertCount, t.clone(), vertexData.vertexOffset, buffer, offset));
+        } else {
+            transformVertices(vertices, vertCount, t, vertexData.vertexOffset, buffer.vertices, offset);
+        }
+        buffer.addRun(vertCount, r, g, b, customization.alpha, overlay, light);
+    }
 
-        VERTEX_BUFFER.getBufferFor(vertexData.renderType, vertexData.primary, vertexConsumer -> {
-            for (int i = 0; i < vertCount; i++) {
-                Vertex vertex = vertices.get(i);
-
-                pos.set(vertex.x, vertex.y, vertex.z, 1);
-                pos.transform(customization.positionMatrix);
-                pos.add(pos.normalized().scale(vertexData.vertexOffset));
-                normal.set(vertex.nx, vertex.ny, vertex.nz);
-                normal.transform(customization.normalMatrix);
-                uv.set(vertex.u, vertex.v, 1);
-                uv.divide(uvFixer);
-                uv.transform(customization.uvMatrix);
-
-                vertexConsumer
-                        .vertex(pos.x, pos.y, pos.z)
-                        .color((float) vertexData.color.x, (float) vertexData.color.y, (float) vertexData.color.z, customization.alpha)
-                        .uv((float) uv.x, (float) uv.y)
-                        .overlayCoords(overlay)
-                        .uv2(light)
-                        .normal((float) normal.x, (float) normal.y, (float) normal.z)
-                        .endVertex();
+    private static final float[] transform = new float[31];
+
+    /**
+     * Flattens the matrices used to transform vertices into a shared float array
+     * [0 - 15] position matrix, [16 - 24] normal matrix, [25 - 30] the first two rows of the uv matrix,
+     * already combined with the texture size, so uvs come out from 0 to 1
+     */
+    private static float[] createTransform(PartCustomization customization, FiguraTextureSet textureSet) {
+        FiguraMat4 pos = customization.positionMatrix;
+        FiguraMat3 normal = customization.normalMatrix;
+        FiguraMat3 uv = customization.uvMatrix;
+        double w = 1d / textureSet.getWidth();
+        double h = 1d / textureSet.getHeight();
+
+        float[] t = transform;
+        t[0] = (float) pos.v11; t[1] = (float) pos.v12; t[2] = (float) pos.v13; t[3] = (float) pos.v14;
+        t[4] = (float) pos.v21; t[5] = (float) pos.v22; t[6] = (float) pos.v23; t[7] = (float) pos.v24;
+        t[8] = (float) pos.v31; t[9] = (float) pos.v32; t[10] = (float) pos.v33; t[11] = (float) pos.v34;
+        t[12] = (float) pos.v41; t[13] = (float) pos.v42; t[14] = (float) pos.v43; t[15] = (float) pos.v44;
+        t[16] = (float) normal.v11; t[17] = (float) normal.v12; t[18] = (float) normal.v13;
+        t[19] = (float) normal.v21; t[20] = (float) normal.v22; t[21] = (float) normal.v23;
+        t[22] = (float) normal.v31; t[23] = (float) normal.v32; t[24] = (float) normal.v33;
+        t[25] = (float) (uv.v11 * w); t[26] = (float) (uv.v12 * h); t[27] = (float) uv.v13;
+        t[28] = (float) (uv.v21 * w); t[29] = (float) (uv.v22 * h); t[30] = (float) uv.v23;
+        return t;
+    }
+
+    /**
+     * Transforms a whole vertex list at once, one attribute at a time,
+     * writing x, y, z, u, v, nx, ny, nz for each vertex to the output, starting at the given offset
+     */
+    private static void transformVertices(VertexArray vertices, int count, float[] t, float vertexOffset, float[] out, int offset) {
+        // positions
+        float[] positions = vertices.positions;
+        if (vertexOffset == 0) {
+            for (int i = 0, p = 0, o = offset; i < count; i++, p += 3, o += 8) {
+                float x = positions[p], y = positions[p + 1], z = positions[p + 2];
+                out[o] = t[0] * x + t[1] * y + t[2] * z + t[3];
+                out[o + 1] = t[4] * x + t[5] * y + t[6] * z + t[7];
+                out[o + 2] = t[8] * x + t[9] * y + t[10] * z + t[11];
+            }
+        } else {
+            // push the vertex away from the camera
+            for (int i = 0, p = 0, o = offset; i < count; i++, p += 3, o += 8) {
+                float x = positions[p], y = positions[p + 1], z = positions[p + 2];
+                float tx = t[0] * x + t[1] * y + t[2] * z + t[3];
+                float ty = t[4] * x + t[5] * y + t[6] * z + t[7];
+                float tz = t[8] * x + t[9] * y + t[10] * z + t[11];
+                float tw = t[12] * x + t[13] * y + t[14] * z + t[15];
+                float scale = vertexOffset / (float) Math.sqrt(tx * tx + ty * ty + tz * tz + tw * tw);
+                out[o] = tx + tx * scale;
+                out[o + 1] = ty + ty * scale;
+                out[o + 2] = tz + tz * scale;
             }
-        });
+        }
+
+        // uvs
+        float[] uvs = vertices.uvs;
+        for (int i = 0, p = 0, o = offset + 3; i < count; i++, p += 2, o += 8) {
+            float u = uvs[p], v = uvs[p + 1];
+            out[o] = t[25] * u + t[26] * v + t[27];
+            out[o + 1] = t[28] * u + t[29] * v + t[30];
+        }
+
+        // normals
+        float[] normals = vertices.normals;
+        for (int i = 0, p = 0, o = offset + 5; i < count; i++, p += 3, o += 8) {
+            float x = normals[p], y = normals[p + 1], z = normals[p + 2];
+            out[o] = t[16] * x + t[17] * y + t[18] * z;
+            out[o + 1] = t[19] * x + t[20] * y + t[21] * z;
+            out[o + 2] = t[22] * x + t[23] * y + t[24] * z;
+        }
     }
 
     private static class VertexData {
+        // inputs
+        public RenderTypes types;
+        public TextureCustomization texture;
+        public int flags;
+        public boolean primary;
+
+        // resolved state
         public RenderType renderType;
         public boolean fullBright;
         public float vertexOffset;
-        public FiguraVec3 color;
-        public boolean primary;
     }
 
     private static class VertexBuffer {
-        private final HashMap<RenderType, List<Consumer<VertexConsumer>>> primaryBuffers = new LinkedHashMap<>();
-        private final HashMap<RenderType, List<Consumer<VertexConsumer>>> secondaryBuffers = new LinkedHashMap<>();
-
-        public void getBufferFor(RenderType renderType, boolean primary, Consumer<VertexConsumer> consumer) {
-            HashMap<RenderType, List<Consumer<VertexConsumer>>> buffer = primary ? primaryBuffers : secondaryBuffers;
-            List<Consumer<VertexConsumer>> list = buffer.computeIfAbsent(renderType, renderType1 -> new ArrayList<>());
-            list.add(consumer);
+        private static final int MAX_POOLED_BUFFERS = 64;
+
+        private final HashMap<RenderType, StagingBuffer> primaryBuffers = new LinkedHashMap<>();
+        private final HashMap<RenderType, StagingBuffer> secondaryBuffers = new LinkedHashMap<>();
+        private final ArrayDeque<StagingBuffer> pool = new ArrayDeque<>();
+
+        // deferred avatars, built and drawn together at the end of the entity pass
+        private final List<VertexJob> jobs = new ArrayList<>();
+        private final List<DeferredDraw> deferred = new ArrayList<>();
+
+        public StagingBuffer getBufferFor(RenderType renderType, boolean primary) {
+            HashMap<RenderType, StagingBuffer> buffers = primary ? primaryBuffers : secondaryBuffers;
+            StagingBuffer buffer = buffers.get(renderType);
+            if (buffer == null) {
+                buffer = pool.isEmpty() ? new StagingBuffer() : pool.poll();
+                buffers.put(renderType, buffer);
+            }
+            return buffer;
         }
 
         public void consume(boolean primary, MultiBufferSource bufferSource) {
-            HashMap<RenderType, List<Consumer<VertexConsumer>>> map = primary ? primaryBuffers : secondaryBuffers;
-            for (Map.Entry<RenderType, List<Consumer<VertexConsumer>>> entry : map.entrySet()) {
-                VertexConsumer vertexConsumer = bufferSource.getBuffer(entry.getKey());
-                List<Consumer<VertexConsumer>> consumers = entry.getValue();
-                for (Consumer<VertexConsumer> consumer : consumers)
-                    consumer.accept(vertexConsumer);
+            HashMap<RenderType, StagingBuffer> map = primary ? primaryBuffers : secondaryBuffers;
+            for (Map.Entry<RenderType, StagingBuffer> entry : map.entrySet()) {
+                StagingBuffer buffer = entry.getValue();
+                buffer.writeTo(bufferSource.getBuffer(entry.getKey()));
+                buffer.clear();
+                if (pool.size() < MAX_POOLED_BUFFERS)
+                    pool.add(buffer);
             }
             map.clear();
         }
+
+        public void addJob(VertexJob job) {
+            jobs.add(job);
+        }
+
+        /**
+         * Moves the current buffers out of the way, to be drawn on the next flush
+         */
+        public void defer(MultiBufferSource bufferSource) {
+            defer(primaryBuffers, bufferSource);
+            defer(secondaryBuffers, bufferSource);
+        }
+
+        private void defer(HashMap<RenderType, StagingBuffer> map, MultiBufferSource bufferSource) {
+            for (Map.Entry<RenderType, StagingBuffer> entry : map.entrySet())
+                deferred.add(new DeferredDraw(bufferSource, entry.getKey(), entry.getValue()));
+            map.clear();
+        }
+
+        /**
+         * Builds every deferred vertex, then draws them in the same order the avatars were rendered.
+         * They are only added to the buffers after every vanilla entity, so translucent render types
+         * shared with other entities can be drawn in a different order than when drawing each avatar right away
+         */
+        public void flush() {
+            if (deferred.isEmpty()) {
+                jobs.clear();
+                return;
+            }
+
+            FiguraMod.pushProfiler("build");
+            int vertexCount = 0;
+            for (VertexJob job : jobs)
+                vertexCount += job.count();
+            if (vertexCount > VertexJobTask.BATCH_SIZE)
+                VertexJobTask.WORKERS.invoke(new VertexJobTask(jobs, 0, jobs.size()));
+            else for (VertexJob job : jobs)
+                job.run();
+            jobs.clear();
+
+            FiguraMod.popPushProfiler("draw");
+            for (DeferredDraw draw : deferred) {
+                StagingBuffer buffer = draw.buffer();
+                buffer.writeTo(draw.bufferSource().getBuffer(draw.renderType()));
+                buffer.clear();
+                if (pool.size() < MAX_POOLED_BUFFERS)
+                    pool.add(buffer);
+            }
+            deferred.clear();
+            FiguraMod.popProfiler();
+        }
+    }
+
+    /**
+     * Draws the vertices deferred by every avatar during this frame
+     */
+    public static void flushDeferredVertices() {
+        VERTEX_BUFFER.flush();
+    }
+
+    private record DeferredDraw(MultiBufferSource bufferSource, RenderType renderType, StagingBuffer buffer) {}
+
+    /**
+     * A vertex list waiting to be transformed into its reserved space of a staging buffer
+     */
+    private record VertexJob(VertexArray vertices, int count, float[] transform, float vertexOffset, StagingBuffer target, int offset) {
+        public void run() {
+            transformVertices(vertices, count, transform, vertexOffset, target.vertices, offset);
+        }
+    }
+
+    /**
+     * Splits the vertex jobs between the worker threads, every job writes to its own range, so they need no locking
+     */
+    private static class VertexJobTask extends RecursiveAction {
+        private static final int BATCH_SIZE = 4096;
+        private static final ForkJoinPool WORKERS = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Figura Vertex Worker-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+
+        private final List<VertexJob> jobs;
+        private final int start, end;
+
+        private VertexJobTask(List<VertexJob> jobs, int start, int end) {
+            this.jobs = jobs;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            int vertexCount = 0;
+            for (int i = start; i < end; i++)
+                vertexCount += jobs.get(i).count();
+
+            if (end - start <= 1 || vertexCount <= BATCH_SIZE) {
+                for (int i = start; i < end; i++)
+                    jobs.get(i).run();
+                return;
+            }
+
+            int mid = (start + end) >>> 1;
+            invokeAll(new VertexJobTask(jobs, start, mid), new VertexJobTask(jobs, mid, end));
+        }
+    }
+
+    /**
+     * Transformed vertices of a single render type, waiting to be written
+     */
+    private static class StagingBuffer {
+        // x, y, z, u, v, nx, ny, nz
+        private float[] vertices = new float[8 * 256];
+        private int vertexCount;
+
+        // blocks of vertices sharing the same color, overlay and light
+        private float[] runColors = new float[4 * 16]; // r, g, b, a
+        private int[] runData = new int[3 * 16]; // vertex count, overlay, light
+        private int runCount;
+
+        /**
+         * Makes room for more vertices
+         * @return the offset where they should be written to
+         */
+        public int reserve(int count) {
+            int needed = (vertexCount + count) * 8;
+            if (needed > vertices.length)
+                vertices = Arrays.copyOf(vertices, Math.max(needed, vertices.length * 2));
+            return vertexCount * 8;
+        }
+
+        public void addRun(int count, float r, float g, float b, float a, int overlay, int light) {
+            if (runCount * 3 == runData.length) {
+                runColors = Arrays.copyOf(runColors, runColors.length * 2);
+                runData = Arrays.copyOf(runData, runData.length * 2);
+            }
+
+            int c = runCount * 4, d = runCount * 3;
+            runColors[c] = r; runColors[c + 1] = g; runColors[c + 2] = b; runColors[c + 3] = a;
+            runData[d] = count; runData[d + 1] = overlay; runData[d + 2] = light;
+
+            runCount++;
+            vertexCount += count;
+        }
+
+        public void writeTo(VertexConsumer consumer) {
+            float[] v = vertices;
+            int o = 0;
+            for (int run = 0; run < runCount; run++) {
+                int c = run * 4, d = run * 3;
+                float r = runColors[c], g = runColors[c + 1], b = runColors[c + 2], a = runColors[c + 3];
+                int count = runData[d], overlay = runData[d + 1], light = runData[d + 2];
+
+                for (int i = 0; i < count; i++, o += 8) {
+                    consumer
+                            .vertex(v[o], v[o + 1], v[o + 2])
+                            .color(r, g, b, a)
+                            .uv(v[o + 3], v[o + 4])
+                            .overlayCoords(overlay)
+                            .uv2(light)
+                            .normal(v[o + 5], v[o + 6], v[o + 7])
+                            .endVertex();
+                }
+            }
+        }
+
+        public void clear() {
+            vertexCount = 0;
+            runCount = 0;
+        }
     }
 }
@@ -0,0 +1,45 @@
+package org.figuramc.figura.model.rendering;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.client.renderer.LightTexture;
+import net.minecraft.core.BlockPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.LightLayer;
+
+/**
+ * Light levels sampled during the current frame, shared between all avatars.
+ * Many parts end up inside the same few blocks, so this makes light sampling scale with the blocks instead of the parts.
+ */
+public class LightCache {
+
+    private static final Long2IntOpenHashMap CACHE = new Long2IntOpenHashMap();
+    private static final BlockPos.MutableBlockPos POS = new BlockPos.MutableBlockPos();
+
+    static {
+        CACHE.defaultReturnValue(-1);
+    }
+
+    /**
+     * Forgets all sampled light levels, called once at the start of every frame
+     */
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * @return the packed block and sky light at the given world position
+     */
+    public static int getLight(Level level, double x, double y, double z) {
+        POS.set(Mth.floor(x), Mth.floor(y), Mth.floor(z));
+        long key = POS.asLong();
+
+        int light = CACHE.get(key);
+        if (light == -1) {
+            light = LightTexture.pack(level.getBrightness(LightLayer.BLOCK, POS), level.getBrightness(LightLayer.SKY, POS));
+            CACHE.put(key, light);
+        }
+
+        return light;
+    }
+}
@@ -15,24 +15,19 @@ import org.figuramc.figura.utils.LuaUtils;
 )
 public class Vertex {
 
-    public float x, y, z;
-    public float u, v;
-    public float nx, ny, nz;
+    private final VertexArray array;
+    private final int index;
 
-    public Vertex(float x, float y, float z, float u, float v, float nx, float ny, float nz) {
-        this.x = x; this.y = y; this.z = z;
-        this.u = u; this.v = v;
-        this.nx = nx; this.ny = ny; this.nz = nz;
-    }
-
-    public Vertex copy() {
-        return new Vertex(x, y, z, u, v, nx, ny, nz);
+    public Vertex(VertexArray array, int index) {
+        this.array = array;
+        this.index = index;
     }
 
     @LuaWhitelist
     @LuaMethodDoc("vertex.get_pos")
     public FiguraVec3 getPos() {
-        return FiguraVec3.of(x, y, z);
+        int i = index * 3;
+        return FiguraVec3.of(array.positions[i], array.positions[i + 1], array.positions[i + 2]);
     }
 
     @LuaWhitelist
@@ -52,9 +47,7 @@ public class Vertex {
     )
     public Vertex setPos(Object x, Double y, Double z) {
         FiguraVec3 vec = LuaUtils.parseVec3("setPos", x, y, z);
-        this.x = (float) vec.x;
-        this.y = (float) vec.y;
-        this.z = (float) vec.z;
+        array.setPos(index, (float) vec.x, (float) vec.y, (float) vec.z);
         return this;
     }
 
@@ -66,7 +59,8 @@ public class Vertex {
     @LuaWhitelist
     @LuaMethodDoc("vertex.get_uv")
     public FiguraVec2 getUV() {
-        return FiguraVec2.of(u, v);
+        int i = index * 2;
+        return FiguraVec2.of(array.uvs[i], array.uvs[i + 1]);
     }
 
     @LuaWhitelist
@@ -86,8 +80,7 @@ public class Vertex {
     )
     public Vertex setUV(Object x, Double y) {
         FiguraVec2 vec = LuaUtils.parseVec2("setUV", x, y);
-        this.u = (float) vec.x;
-        this.v = (float) vec.y;
+        array.setUV(index, (float) vec.x, (float) vec.y);
         return this;
     }
 
@@ -99,7 +92,8 @@ public class Vertex {
     @LuaWhitelist
     @LuaMethodDoc("vertex.get_normal")
     public FiguraVec3 getNormal() {
-        return FiguraVec3.of(nx, ny, nz);
+        int i = index * 3;
+        return FiguraVec3.of(array.normals[i], array.normals[i + 1], array.normals[i + 2]);
     }
 
     @LuaWhitelist
@@ -124,9 +118,7 @@ public class Vertex {
     }
 
     public void setNormal(FiguraVec3 vec) {
-        this.nx = (float) vec.x;
-        this.ny = (float) vec.y;
-        this.nz = (float) vec.z;
+        array.setNormal(index, (float) vec.x, (float) vec.y, (float) vec.z);
     }
 
     @LuaWhitelist
@@ -0,0 +1,135 @@
+package org.figuramc.figura.model.rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packed vertex storage, with one float array per attribute.
+ * {@link Vertex} objects are only views over this, and are only created when a script asks for them.
+ */
+public class VertexArray {
+
+    public float[] positions; // xyz
+    public float[] uvs; // uv
+    public float[] normals; // xyz
+    private int size;
+
+    // min xyz, max xyz
+    private final float[] bounds = new float[6];
+    private boolean boundsDirty = true;
+
+    private List<Vertex> views;
+
+    public VertexArray() {
+        this(4);
+    }
+
+    public VertexArray(int capacity) {
+        this.positions = new float[capacity * 3];
+        this.uvs = new float[capacity * 2];
+        this.normals = new float[capacity * 3];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+        boundsDirty = true;
+    }
+
+    public void add(float x, float y, float z, float u, float v, float nx, float ny, float nz) {
+        if (size * 3 == positions.length) {
+            int capacity = Math.max(size * 2, 4);
+            positions = Arrays.copyOf(positions, capacity * 3);
+            uvs = Arrays.copyOf(uvs, capacity * 2);
+            normals = Arrays.copyOf(normals, capacity * 3);
+        }
+
+        setPos(size, x, y, z);
+        setUV(size, u, v);
+        setNormal(size, nx, ny, nz);
+        size++;
+    }
+
+    /**
+     * Shrinks the arrays to the current size, should be called once no more vertices will be added
+     */
+    public void trim() {
+        if (size * 3 == positions.length)
+            return;
+
+        positions = Arrays.copyOf(positions, size * 3);
+        uvs = Arrays.copyOf(uvs, size * 2);
+        normals = Arrays.copyOf(normals, size * 3);
+    }
+
+    public VertexArray copy() {
+        VertexArray copy = new VertexArray(0);
+        copy.positions = Arrays.copyOf(positions, size * 3);
+        copy.uvs = Arrays.copyOf(uvs, size * 2);
+        copy.normals = Arrays.copyOf(normals, size * 3);
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * @return the box containing every vertex position, as min xyz followed by max xyz
+     */
+    public float[] getBounds() {
+        if (boundsDirty) {
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < size * 3; i += 3) {
+                minX = Math.min(minX, positions[i]); maxX = Math.max(maxX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]); maxY = Math.max(maxY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]); maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+            bounds[0] = minX; bounds[1] = minY; bounds[2] = minZ;
+            bounds[3] = maxX; bounds[4] = maxY; bounds[5] = maxZ;
+            boundsDirty = false;
+        }
+        return bounds;
+    }
+
+    public void setPos(int index, float x, float y, float z) {
+        boundsDirty = true;
+        int i = index * 3;
+        positions[i] = x;
+        positions[i + 1] = y;
+        positions[i + 2] = z;
+    }
+
+    public void setUV(int index, float u, float v) {
+        int i = index * 2;
+        uvs[i] = u;
+        uvs[i + 1] = v;
+    }
+
+    public void setNormal(int index, float x, float y, float z) {
+        int i = index * 3;
+        normals[i] = x;
+        normals[i + 1] = y;
+        normals[i + 2] = z;
+    }
+
+    /**
+     * @return a list of vertex views over this array, the views are cached so scripts always get the same objects
+     */
+    public List<Vertex> asList() {
+        if (views == null || views.size() != size) {
+            List<Vertex> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(new Vertex(this, i));
+            views = Collections.unmodifiableList(list);
+        }
+        return views;
+    }
+}
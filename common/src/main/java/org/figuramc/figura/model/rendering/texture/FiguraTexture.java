@@ -53,8 +53,13 @@ public class FiguraTexture extends SimpleTexture {
     /**
      * Native image holding the texture data for this texture.
      */
-    private final NativeImage texture;
+    private NativeImage texture;
     private NativeImage backup;
+
+    /**
+     * Read only texture this one is using, until it gets modified
+     */
+    private FiguraTexture shared;
     private boolean isClosed = false;
 
     public FiguraTexture(Avatar owner, String name, byte[] data) {
@@ -91,6 +96,13 @@ public class FiguraTexture extends SimpleTexture {
         this.owner = owner;
     }
 
+    public FiguraTexture(Avatar owner, FiguraTexture shared) {
+        super(new FiguraIdentifier("avatar_tex/" + owner.owner + "/" + UUID.randomUUID()));
+        this.shared = shared;
+        this.name = shared.name;
+        this.owner = owner;
+    }
+
     @Override
     public void load(ResourceManager manager) throws IOException {}
 
@@ -101,8 +113,9 @@ public class FiguraTexture extends SimpleTexture {
 
         isClosed = true;
 
-        // Close native images
-        texture.close();
+        // Close native images, shared textures are closed by their owner
+        if (texture != null)
+            texture.close();
         if (backup != null)
             backup.close();
 
@@ -111,6 +124,11 @@ public class FiguraTexture extends SimpleTexture {
     }
 
     public void uploadIfDirty() {
+        if (shared != null) {
+            shared.uploadIfDirty();
+            return;
+        }
+
         if (!registered) {
             Minecraft.getInstance().getTextureManager().register(this.location, this);
             registered = true;
@@ -134,31 +152,60 @@ public class FiguraTexture extends SimpleTexture {
     }
 
     public void writeTexture(Path dest) throws IOException {
-        texture.writeToFile(dest);
+        image().writeToFile(dest);
     }
 
     private void backupImage() {
+        unshare();
         this.modified = true;
         if (this.backup == null)
             backup = copy();
     }
 
+    /**
+     * Gets a copy of the shared image, so it can be modified
+     */
+    private void unshare() {
+        if (shared == null)
+            return;
+
+        texture = shared.copy();
+        shared = null;
+        dirty = true;
+
+        // the location changed from the shared texture to this one
+        if (owner.renderer != null)
+            owner.renderer.invalidateTextures();
+    }
+
+    private NativeImage image() {
+        return shared != null ? shared.image() : texture;
+    }
+
     public NativeImage copy() {
-        NativeImage image = new NativeImage(texture.format(), texture.getWidth(), texture.getHeight(), true);
-        image.copyFrom(texture);
-        return image;
+        NativeImage image = image();
+        NativeImage copy = new NativeImage(image.format(), image.getWidth(), image.getHeight(), true);
+        copy.copyFrom(image);
+        return copy;
     }
 
     public int getWidth() {
-        return texture.getWidth();
+        return image().getWidth();
     }
 
     public int getHeight() {
-        return texture.getHeight();
+        return image().getHeight();
     }
 
     public ResourceLocation getLocation() {
-        return this.location;
+        return shared != null ? shared.getLocation() : this.location;
+    }
+
+    /**
+     * @return if the image still belongs to the avatar template
+     */
+    public boolean isShared() {
+        return shared != null;
     }
 
 
@@ -196,7 +243,7 @@ public class FiguraTexture extends SimpleTexture {
             value = "texture.get_pixel")
     public FiguraVec4 getPixel(int x, int y) {
         try {
-            return ColorUtils.abgrToRGBA(texture.getPixelRGBA(x, y));
+            return ColorUtils.abgrToRGBA(image().getPixelRGBA(x, y));
         } catch (Exception e) {
             throw new LuaError(e.getMessage());
         }
@@ -283,7 +330,7 @@ public class FiguraTexture extends SimpleTexture {
     @LuaMethodDoc("texture.save")
     public String save() {
         try {
-            return Base64.getEncoder().encodeToString(texture.asByteArray());
+            return Base64.getEncoder().encodeToString(image().asByteArray());
         } catch (Exception e) {
             throw new LuaError(e.getMessage());
         }
@@ -16,6 +16,7 @@ import org.figuramc.figura.math.vector.FiguraVec3;
 import org.figuramc.figura.math.vector.FiguraVec4;
 import org.figuramc.figura.model.FiguraModelPart;
 import org.figuramc.figura.model.rendering.Vertex;
+import org.figuramc.figura.model.rendering.VertexArray;
 import org.figuramc.figura.model.rendering.texture.FiguraTexture;
 import org.figuramc.figura.model.rendering.texture.RenderTypes;
 import org.figuramc.figura.utils.ColorUtils;
@@ -24,7 +25,6 @@ import org.joml.Matrix3f;
 import org.joml.Matrix4f;
 import org.luaj.vm2.LuaError;
 
-import java.util.ArrayList;
 import java.util.List;
 
 @LuaWhitelist
@@ -35,13 +35,14 @@ import java.util.List;
 public class SpriteTask extends RenderTask {
 
     private ResourceLocation texture;
+    private FiguraTexture figuraTexture; // its location changes if a shared texture is edited
     private int textureW = -1, textureH = -1;
     private int width, height;
     private int regionW, regionH;
     private float u = 0f, v = 0f;
     private int r = 0xFF, g = 0xFF, b = 0xFF, a = 0xFF;
     private RenderTypes renderType = RenderTypes.TRANSLUCENT;
-    private final List<Vertex> vertices = new ArrayList<>(4);
+    private final VertexArray vertices = new VertexArray(4);
 
     public SpriteTask(String name, Avatar owner, FiguraModelPart parent) {
         super(name, owner, parent);
@@ -60,16 +61,18 @@ public class SpriteTask extends RenderTask {
         int newOverlay = this.customization.overlay != null ? this.customization.overlay : overlay;
 
         // setup texture render
-        VertexConsumer consumer = buffer.getBuffer(renderType.get(texture));
+        VertexConsumer consumer = buffer.getBuffer(renderType.get(getLocation()));
 
         // create vertices
-        for (Vertex v : vertices) {
-            consumer.vertex(pose, v.x, v.y, v.z)
+        float[] positions = vertices.positions, uvs = vertices.uvs, normals = vertices.normals;
+        for (int i = 0; i < vertices.size(); i++) {
+            int i3 = i * 3, i2 = i * 2;
+            consumer.vertex(pose, positions[i3], positions[i3 + 1], positions[i3 + 2])
                     .color(r, g, b, a)
-                    .uv(v.u, v.v)
+                    .uv(uvs[i2], uvs[i2 + 1])
                     .overlayCoords(newOverlay)
                     .uv2(newLight)
-                    .normal(normal, v.nx, v.ny, v.nz)
+                    .normal(normal, normals[i3], normals[i3 + 1], normals[i3 + 2])
                     .endVertex();
         }
     }
@@ -89,10 +92,10 @@ public class SpriteTask extends RenderTask {
         float v2 = v + regionH / (float) textureH;
 
         vertices.clear();
-        vertices.add(new Vertex(0f, height, 0f, u, v2, 0f, 0f, -1f));
-        vertices.add(new Vertex(width, height, 0f, u2, v2, 0f, 0f, -1f));
-        vertices.add(new Vertex(width, 0f, 0f, u2, v, 0f, 0f, -1f));
-        vertices.add(new Vertex(0f, 0f, 0f, u, v, 0f, 0f, -1f));
+        vertices.add(0f, height, 0f, u, v2, 0f, 0f, -1f);
+        vertices.add(width, height, 0f, u2, v2, 0f, 0f, -1f);
+        vertices.add(width, 0f, 0f, u2, v, 0f, 0f, -1f);
+        vertices.add(0f, 0f, 0f, u, v, 0f, 0f, -1f);
     }
 
 
@@ -102,7 +105,12 @@ public class SpriteTask extends RenderTask {
     @LuaWhitelist
     @LuaMethodDoc("sprite_task.get_texture")
     public String getTexture() {
-        return texture == null ? null : texture.toString();
+        ResourceLocation location = getLocation();
+        return location == null ? null : location.toString();
+    }
+
+    private ResourceLocation getLocation() {
+        return figuraTexture != null ? figuraTexture.getLocation() : texture;
     }
 
     @LuaWhitelist
@@ -125,6 +133,7 @@ public class SpriteTask extends RenderTask {
             value = "sprite_task.set_texture"
     )
     public SpriteTask setTexture(Object texture, Integer width, Integer height) {
+        this.figuraTexture = null;
         if (texture == null) {
             this.texture = null;
             return this;
@@ -140,6 +149,7 @@ public class SpriteTask extends RenderTask {
                 throw new LuaError("Texture dimensions cannot be null");
         } else if (texture instanceof FiguraTexture tex) {
             this.texture = tex.getLocation();
+            this.figuraTexture = tex;
             if (width == null || height == null) {
                 width = tex.getWidth();
                 height = tex.getHeight();
@@ -410,7 +420,7 @@ public class SpriteTask extends RenderTask {
     @LuaWhitelist
     @LuaMethodDoc("sprite_task.get_vertices")
     public List<Vertex> getVertices() {
-        return vertices;
+        return vertices.asList();
     }
 
     @Override
@@ -88,6 +88,12 @@ public class AvatarMetadataParser {
             nbt.put("autoAnims", autoAnims);
         }
 
+        if (metadata.bakedRendering != null && metadata.bakedRendering)
+            nbt.putBoolean("baked", true);
+
+        if (metadata.sharedScript != null && metadata.sharedScript)
+            nbt.putBoolean("sharedScript", true);
+
         return nbt;
     }
 
@@ -209,6 +215,7 @@ public class AvatarMetadataParser {
         public String name, description, author, version, color, background, id;
         public String[] authors, autoScripts, autoAnims, ignoredTextures;
         public HashMap<String, Customization> customizations;
+        public Boolean bakedRendering, sharedScript;
     }
 
     /**
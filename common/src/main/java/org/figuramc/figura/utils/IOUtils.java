@@ -2,8 +2,10 @@ package org.figuramc.figura.utils;
 
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.Tag;
 import org.figuramc.figura.FiguraMod;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -100,6 +102,28 @@ public class IOUtils {
         deleteFile(path);
     }
 
+    /**
+     * @return the size the nbt would have as a compressed file, without keeping the written bytes around
+     */
+    public static int getCompressedSize(CompoundTag nbt) throws IOException {
+        CountingOutputStream stream = new CountingOutputStream();
+        NbtIo.writeCompressed(nbt, stream);
+        return stream.count;
+    }
+
+    /**
+     * @return the uncompressed size of the tag, in bytes
+     */
+    public static int getSize(Tag tag) {
+        try {
+            DataOutputStream stream = new DataOutputStream(OutputStream.nullOutputStream());
+            tag.write(stream);
+            return stream.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
     public static Path getOrCreateDir(Path startingPath, String dir) {
         return createDirIfNeeded(startingPath.resolve(dir));
     }
@@ -165,6 +189,20 @@ public class IOUtils {
         return hidden || getFileNameOrEmpty(path).startsWith(".");
     }
 
+    private static class CountingOutputStream extends OutputStream {
+        private int count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
     public static class DirWrapper {
         private final Path path;
 